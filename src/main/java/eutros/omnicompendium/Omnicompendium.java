@@ -1,6 +1,7 @@
 package eutros.omnicompendium;
 
 import eutros.omnicompendium.config.OmCConfig;
+import eutros.omnicompendium.helper.TextHelper;
 import eutros.omnicompendium.item.ModItems;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.Mod;
@@ -28,6 +29,7 @@ public class Omnicompendium {
             return;
         }
         OmCConfig.registerConfig(evt);
+        TextHelper.registerReloadListener();
     }
 
 }
@@ -2,6 +2,7 @@ package eutros.omnicompendium.config;
 
 import eutros.omnicompendium.Omnicompendium;
 import eutros.omnicompendium.gui.entry.CompendiumEntries;
+import eutros.omnicompendium.loader.FileWatcher;
 import eutros.omnicompendium.loader.GitLoader;
 import eutros.omnicompendium.loader.ImageLoader;
 import net.minecraftforge.common.config.Configuration;
@@ -9,8 +10,10 @@ import net.minecraftforge.fml.client.event.ConfigChangedEvent;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import org.eclipse.jgit.diff.DiffEntry;
 
 import java.io.File;
+import java.util.List;
 
 @Mod.EventBusSubscriber(modid = Omnicompendium.MOD_ID)
 public class OmCConfig {
@@ -18,6 +21,12 @@ public class OmCConfig {
     public static Configuration config;
     public static String url;
     public static String branch;
+    public static boolean watchFiles;
+    public static int textureBudget;
+    public static int decodeMemory;
+    public static int decodeThreads;
+    public static float uploadBudget;
+    public static boolean usePixelBuffers;
 
     public static void init(File file) {
         config = new Configuration(file);
@@ -38,13 +47,45 @@ public class OmCConfig {
         propertyName = "branch";
         branch = config.getString(propertyName, categoryName, "HEAD", "The branch of the repository to use.");
 
+        propertyName = "watchFiles";
+        watchFiles = config.getBoolean(propertyName, categoryName, false, "Whether to reload entries and images as soon as they are edited in the Omnicompendium directory, for writing entries in game.");
+
+        categoryName = "Images";
+        config.addCustomCategoryComment(categoryName, "Image loading configurations.");
+
+        propertyName = "textureBudget";
+        textureBudget = config.getInt(propertyName, categoryName, 256, 16, 4096, "The amount of video memory, in megabytes, that compendium images may use before the least recently drawn are unloaded.");
+
+        propertyName = "decodeMemory";
+        decodeMemory = config.getInt(propertyName, categoryName, 128, 8, 2048, "The amount of memory, in megabytes, that images being decoded may use at once.");
+
+        propertyName = "decodeThreads";
+        decodeThreads = config.getInt(propertyName, categoryName, 0, 0, 64, "The number of threads to decode images with, or 0 to use one less than the number of processors. Requires a restart.");
+
+        propertyName = "uploadBudget";
+        uploadBudget = config.getFloat(propertyName, categoryName, 2, 0, 50, "The time, in milliseconds, that may be spent uploading images to the GPU each frame. At least one step of one upload is always done.");
+
+        propertyName = "usePixelBuffers";
+        usePixelBuffers = config.getBoolean(propertyName, categoryName, true, "Whether to upload large images through pixel buffer objects, so that the GPU can copy them while the game keeps rendering.");
+
         config.save();
 
         new Thread(() -> {
-            GitLoader.syncRepo();
             CompendiumEntries.setLinkChecker(url);
-            CompendiumEntries.refresh();
-            ImageLoader.load();
+            CompendiumEntries.loadIndex();
+            FileWatcher.pause();
+            try {
+                List<DiffEntry> changes = GitLoader.syncRepo();
+                CompendiumEntries.update(changes);
+                ImageLoader.update(changes);
+            } finally {
+                FileWatcher.resume();
+            }
+            if(watchFiles) {
+                FileWatcher.start();
+            } else {
+                FileWatcher.stop();
+            }
         }, "Omnicompendium Git Loader").start();
     }
 
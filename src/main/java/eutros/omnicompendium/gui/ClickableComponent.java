@@ -5,6 +5,7 @@ import eutros.omnicompendium.helper.MouseHelper;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.Supplier;
 
@@ -67,6 +68,14 @@ public class ClickableComponent {
         return this;
     }
 
+    /**
+     * @return Every area of this component, as {minX, minY, maxX, maxY}.
+     */
+    @Nonnull
+    public List<int[]> getBounds() {
+        return Collections.unmodifiableList(bounds);
+    }
+
     public boolean isHovered(int mouseX, int mouseY) {
         for(int[] bound : bounds) {
             if(MouseHelper.contains(bound[0], bound[1], bound[2], bound[3], mouseX, mouseY)) return true;
@@ -81,6 +90,11 @@ public class ClickableComponent {
         return isHovered(mouseX, mouseY) && callback.click(mouseX, mouseY, mouseButton);
     }
 
+    @Nullable
+    public ClickFunction getCallback() {
+        return callback;
+    }
+
     @Nullable
     public List<String> getTooltip() {
         return tooltip.get();
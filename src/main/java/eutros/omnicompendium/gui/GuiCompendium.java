@@ -4,19 +4,24 @@ import eutros.omnicompendium.Omnicompendium;
 import eutros.omnicompendium.gui.entry.CompendiumEntries;
 import eutros.omnicompendium.gui.entry.CompendiumEntry;
 import eutros.omnicompendium.gui.entry.EntryList;
+import eutros.omnicompendium.gui.entry.LayoutCache;
+import eutros.omnicompendium.gui.entry.TableOfContents;
+import eutros.omnicompendium.gui.render.PageRaster;
 import eutros.omnicompendium.helper.MouseHelper;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.GuiScreen;
 import net.minecraft.client.gui.ScaledResolution;
 import net.minecraft.client.renderer.GlStateManager;
 import net.minecraft.util.ResourceLocation;
+import org.lwjgl.input.Keyboard;
 import org.lwjgl.input.Mouse;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.awt.*;
 import java.io.IOException;
 import java.util.List;
-import java.util.Stack;
+import java.util.Map;
 
 public class GuiCompendium extends GuiScreen {
 
@@ -40,16 +45,15 @@ public class GuiCompendium extends GuiScreen {
     public static int ENTRY_Y;
 
     private final EntryList entryList;
+    private final TableOfContents tableOfContents = new TableOfContents();
+    @Nullable
+    private ListPanel<?> panel = null;
 
     public static final CompendiumEntry DEFAULT_ENTRY = CompendiumEntries.fromResourceLocation(DEFAULT_LOCATION).orElse(CompendiumEntries.Entries.BROKEN);
-    private static Stack<CompendiumEntry> entryStack = new Stack<>();
-
-    static {
-        entryStack.push(DEFAULT_ENTRY);
-    }
+    private static final NavigationHistory history = new NavigationHistory(DEFAULT_ENTRY);
 
     @Nonnull
-    private CompendiumEntry entry = entryStack.peek().setCompendium(this);
+    private CompendiumEntry entry = history.getCurrent().setCompendium(this);
 
     public GuiCompendium() {
         super();
@@ -73,7 +77,19 @@ public class GuiCompendium extends GuiScreen {
         ENTRY_X = (int) (60 * GUI_SCALE);
         ENTRY_Y = (int) (12 * GUI_SCALE);
 
+        PageRaster.INSTANCE.invalidate();
         entry.setCompendium(this);
+        LayoutCache.INSTANCE.setShown(entry);
+        if(panel != null) {
+            panel.layout();
+        }
+    }
+
+    @Override
+    public void updateScreen() {
+        if(panel != null) {
+            panel.update();
+        }
     }
 
     @Override
@@ -115,9 +131,18 @@ public class GuiCompendium extends GuiScreen {
         Point entryListMouse = transmuteEntryListMouse(mouse);
         Point entryMouse = transmuteEntryMouse(mouse);
 
+        if(panel != null) {
+            panel.draw();
+        }
+
         List<String> tooltip = null;
-        if(MouseHelper.contains(0, 0, ENTRY_WIDTH, ENTRY_HEIGHT, entryMouse.x, entryMouse.y)) {
+        if(panel == null
+                && MouseHelper.contains(0, 0, ENTRY_WIDTH, ENTRY_HEIGHT, entryMouse.x, entryMouse.y)
+                && !tableOfContents.contains(entry, entryMouse.x, entryMouse.y)) {
+            entry.hover(entryMouse.x, entryMouse.y);
             tooltip = entry.getTooltip(entryMouse.x, entryMouse.y);
+        } else {
+            entry.hover(-1, -1);
         }
 
         if(tooltip == null && MouseHelper.contains(0, 0, ENTRY_LIST_WIDTH, ENTRY_LIST_HEIGHT, entryListMouse.x, entryListMouse.y)) {
@@ -147,10 +172,13 @@ public class GuiCompendium extends GuiScreen {
     private void drawEntry() {
         GlStateManager.translate(ENTRY_X, ENTRY_Y, 0);
         entry.draw();
+        tableOfContents.draw(entry);
     }
 
     @Override
     protected void mouseClicked(int mouseX, int mouseY, int mouseButton) {
+        if(panel != null && panel.mouseClicked(mouseX, mouseY, mouseButton)) return;
+
         mouseX -= GUI_X;
         mouseX -= ENTRY_X;
 
@@ -165,25 +193,73 @@ public class GuiCompendium extends GuiScreen {
                 mouseY))
             return;
 
+        if(tableOfContents.mouseClicked(entry, mouseX, mouseY, mouseButton)) return;
         if(entry.mouseClicked(mouseX, mouseY, mouseButton)) return;
 
-        if(mouseButton == 1) popEntry();
+        if(mouseButton == 1 || mouseButton == 3) goBack();
+        if(mouseButton == 4) goForward();
+    }
+
+    public void goBack() {
+        go(-1);
+    }
+
+    public void goForward() {
+        go(1);
     }
 
-    public void popEntry() {
-        if(entryStack.size() >= 2) {
-            entryStack.pop();
-            setEntry(entryStack.peek());
+    // recently shown pages are usually still laid out, so this only swaps them in
+    private void go(int offset) {
+        int scroll = history.go(offset, entry.scroll);
+        if(scroll >= 0) {
+            setEntry(history.getCurrent());
+            entry.restore(scroll);
         }
     }
 
     public void openEntry(CompendiumEntry entry) {
-        setEntry(entryStack.push(entry));
+        history.push(entry, this.entry.scroll);
+        setEntry(entry);
+        entry.reset();
     }
 
     private void setEntry(CompendiumEntry entry) {
+        closePanel();
         this.entry = entry.setCompendium(this);
-        entry.reset();
+        LayoutCache.INSTANCE.setShown(entry);
+        prefetchNext(entry);
+    }
+
+    // lay out the entry after this one in the list while this one is being read
+    private static void prefetchNext(CompendiumEntry entry) {
+        synchronized(CompendiumEntries.listEntries) {
+            int index = CompendiumEntries.listEntries.indexOf(entry);
+            if(index != -1 && index + 1 < CompendiumEntries.listEntries.size()) {
+                CompendiumEntries.listEntries.get(index + 1).prefetchLayout();
+            }
+        }
+    }
+
+    /**
+     * Swap entries that were read again for their new versions, wherever they are open.
+     * The page being shown keeps its place, relative to the nearest heading above it.
+     * <p>
+     * Must be called on the client thread.
+     */
+    public static void replaceEntries(Map<CompendiumEntry, CompendiumEntry> replaced) {
+        history.replaceAll(entry -> replaced.getOrDefault(entry, entry));
+
+        GuiScreen screen = Minecraft.getMinecraft().currentScreen;
+        if(screen instanceof GuiCompendium) {
+            GuiCompendium gui = (GuiCompendium) screen;
+            CompendiumEntry replacement = replaced.get(gui.entry);
+            if(replacement != null) {
+                replacement.setCompendium(gui).scrollLike(gui.entry);
+                gui.entry = replacement;
+                LayoutCache.INSTANCE.setShown(replacement);
+                prefetchNext(replacement);
+            }
+        }
     }
 
     @Override
@@ -205,10 +281,66 @@ public class GuiCompendium extends GuiScreen {
             if(entryList.handleMouseInput(mouseY - ENTRY_LIST_Y)) return;
         }
 
+        if(panel != null) {
+            panel.handleMouseInput();
+            return;
+        }
+
         Point mouse = transmuteEntryMouse(new Point(mouseX, mouseY));
+        if(tableOfContents.contains(entry, mouse.x, mouse.y)) {
+            tableOfContents.handleMouseInput();
+            return;
+        }
         entry.handleMouseInput(mouse.y);
     }
 
+    @Override
+    protected void keyTyped(char typedChar, int keyCode) throws IOException {
+        if(panel != null) {
+            panel.keyTyped(typedChar, keyCode);
+            return;
+        }
+        if(isCtrlKeyDown() && keyCode == Keyboard.KEY_F) {
+            openPanel(new SearchPanel(this));
+            return;
+        }
+        if(isCtrlKeyDown() && keyCode == Keyboard.KEY_P) {
+            openPanel(new QuickSwitcher(this));
+            return;
+        }
+        if(isCtrlKeyDown() && keyCode == Keyboard.KEY_T) {
+            TableOfContents.toggle();
+            return;
+        }
+        if(isAltKeyDown() && keyCode == Keyboard.KEY_LEFT) {
+            goBack();
+            return;
+        }
+        if(isAltKeyDown() && keyCode == Keyboard.KEY_RIGHT) {
+            goForward();
+            return;
+        }
+        super.keyTyped(typedChar, keyCode);
+    }
+
+    public void openPanel(ListPanel<?> panel) {
+        this.panel = panel;
+        Keyboard.enableRepeatEvents(true);
+    }
+
+    public void closePanel() {
+        if(panel != null) {
+            panel = null;
+            Keyboard.enableRepeatEvents(false);
+        }
+    }
+
+    @Override
+    public void onGuiClosed() {
+        closePanel();
+        PageRaster.INSTANCE.release();
+    }
+
     @Override
     public boolean doesGuiPauseGame() {
         return false;
@@ -0,0 +1,188 @@
+package eutros.omnicompendium.gui;
+
+import eutros.omnicompendium.gui.render.DrawList;
+import eutros.omnicompendium.helper.MouseHelper;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.FontRenderer;
+import net.minecraft.client.gui.Gui;
+import net.minecraft.client.gui.GuiTextField;
+import net.minecraft.client.resources.I18n;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.text.TextFormatting;
+import org.lwjgl.input.Keyboard;
+import org.lwjgl.input.Mouse;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A text box drawn over the entry, with a list of results below it that is updated as it is typed in.
+ * <p>
+ * Results can be picked with the mouse, or with the arrow keys and enter. Escape closes the panel.
+ */
+public abstract class ListPanel<T> {
+
+    protected static final int FIELD_HEIGHT = 12;
+    protected static final int PADDING = 2;
+    protected static final int TEXT_COLOR = 0xFF555555;
+    private static final int BACKGROUND_COLOR = 0xF0F4ECDC;
+    private static final int SELECTED_COLOR = 0x20000000;
+
+    protected final Minecraft mc = Minecraft.getMinecraft();
+    protected final FontRenderer fr = mc.fontRenderer;
+    protected final GuiCompendium compendium;
+    private final DrawList drawList = new DrawList();
+    private GuiTextField field;
+
+    private String query = "";
+    private List<T> results = Collections.emptyList();
+    private int selected = 0;
+    private int scroll = 0; // the first visible row
+
+    protected ListPanel(GuiCompendium compendium) {
+        this.compendium = compendium;
+        layout();
+    }
+
+    /**
+     * @return The results for what has been typed, best first.
+     */
+    protected abstract List<T> query(String query);
+
+    protected abstract int getRowHeight();
+
+    protected abstract void addRow(DrawList list, T result, int x, int y, int width);
+
+    protected abstract void open(T result);
+
+    /**
+     * @return The translation key of the message shown while nothing has been typed.
+     */
+    protected abstract String getHint();
+
+    /**
+     * Place the text box over the entry, keeping what was typed, such as after the GUI was resized.
+     */
+    public void layout() {
+        String text = field != null ? field.getText() : "";
+        field = new GuiTextField(0,
+                fr,
+                GuiCompendium.GUI_X + GuiCompendium.ENTRY_X,
+                GuiCompendium.GUI_Y + GuiCompendium.ENTRY_Y,
+                GuiCompendium.ENTRY_WIDTH,
+                FIELD_HEIGHT);
+        field.setMaxStringLength(256);
+        field.setText(text);
+        field.setFocused(true);
+        field.setCanLoseFocus(false);
+    }
+
+    private int getResultsY() {
+        return GuiCompendium.GUI_Y + GuiCompendium.ENTRY_Y + FIELD_HEIGHT + PADDING;
+    }
+
+    private int getVisibleRows() {
+        return Math.max(1, (GuiCompendium.ENTRY_HEIGHT - FIELD_HEIGHT - PADDING) / getRowHeight());
+    }
+
+    public void update() {
+        field.updateCursorCounter();
+    }
+
+    public void draw() {
+        int x = GuiCompendium.GUI_X + GuiCompendium.ENTRY_X;
+        int y = GuiCompendium.GUI_Y + GuiCompendium.ENTRY_Y;
+        int width = GuiCompendium.ENTRY_WIDTH;
+        Gui.drawRect(x, y, x + width, y + GuiCompendium.ENTRY_HEIGHT, BACKGROUND_COLOR);
+        field.drawTextBox();
+
+        drawList.begin();
+        int rowY = getResultsY();
+        if(results.isEmpty()) {
+            String message = I18n.format(query.trim().isEmpty() ? getHint() : "omnicompendium.search.none");
+            drawList.addText(TextFormatting.ITALIC + message, x + PADDING, rowY + PADDING, 1, TEXT_COLOR);
+        }
+        int last = Math.min(results.size(), scroll + getVisibleRows());
+        for(int i = scroll; i < last; i++) {
+            if(i == selected) {
+                drawList.addRect(x, rowY, x + width, rowY + getRowHeight(), SELECTED_COLOR);
+            }
+            addRow(drawList, results.get(i), x + PADDING, rowY + 1, width - PADDING * 2);
+            rowY += getRowHeight();
+        }
+        drawList.draw();
+    }
+
+    /**
+     * Handle a key while the panel is open, which takes every key.
+     */
+    public void keyTyped(char typedChar, int keyCode) {
+        switch(keyCode) {
+            case Keyboard.KEY_ESCAPE:
+                compendium.closePanel();
+                return;
+            case Keyboard.KEY_UP:
+                select(selected - 1);
+                return;
+            case Keyboard.KEY_DOWN:
+                select(selected + 1);
+                return;
+            case Keyboard.KEY_RETURN:
+            case Keyboard.KEY_NUMPADENTER:
+                open(selected);
+                return;
+        }
+
+        if(field.textboxKeyTyped(typedChar, keyCode) && !field.getText().equals(query)) {
+            query = field.getText();
+            results = query(query);
+            selected = 0;
+            scroll = 0;
+        }
+    }
+
+    /**
+     * @return Whether the click was on the panel.
+     */
+    public boolean mouseClicked(int mouseX, int mouseY, int mouseButton) {
+        int x = GuiCompendium.GUI_X + GuiCompendium.ENTRY_X;
+        int y = GuiCompendium.GUI_Y + GuiCompendium.ENTRY_Y;
+        if(!MouseHelper.isClicked(x, y, GuiCompendium.ENTRY_WIDTH, GuiCompendium.ENTRY_HEIGHT, mouseX, mouseY)) {
+            return false;
+        }
+
+        field.mouseClicked(mouseX, mouseY, mouseButton);
+        if(mouseButton == 0 && mouseY >= getResultsY()) {
+            int row = scroll + (mouseY - getResultsY()) / getRowHeight();
+            if(row < Math.min(results.size(), scroll + getVisibleRows())) {
+                open(row);
+            }
+        }
+        return true;
+    }
+
+    public void handleMouseInput() {
+        int wheel = Mouse.getDWheel();
+        if(wheel != 0) {
+            scroll = MathHelper.clamp(scroll - Integer.signum(wheel), 0, Math.max(0, results.size() - getVisibleRows()));
+        }
+    }
+
+    private void select(int index) {
+        if(results.isEmpty()) return;
+
+        selected = MathHelper.clamp(index, 0, results.size() - 1);
+        if(selected < scroll) {
+            scroll = selected;
+        } else if(selected >= scroll + getVisibleRows()) {
+            scroll = selected - getVisibleRows() + 1;
+        }
+    }
+
+    private void open(int index) {
+        if(index >= 0 && index < results.size()) {
+            open(results.get(index));
+        }
+    }
+
+}
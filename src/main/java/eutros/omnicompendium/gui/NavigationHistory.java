@@ -0,0 +1,83 @@
+package eutros.omnicompendium.gui;
+
+import eutros.omnicompendium.gui.entry.CompendiumEntry;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * The pages that have been visited, with where each was scrolled to, which can be gone back and forward through.
+ * <p>
+ * Recently shown pages usually still have their layouts in the {@link eutros.omnicompendium.gui.entry.LayoutCache},
+ * so going back to one is only a swap.
+ */
+public class NavigationHistory {
+
+    private static final int MAX_VISITS = 64;
+
+    private static class Visit {
+
+        private CompendiumEntry entry;
+        private int scroll = 0;
+
+        private Visit(CompendiumEntry entry) {
+            this.entry = entry;
+        }
+
+    }
+
+    private final List<Visit> visits = new ArrayList<>();
+    private int index;
+
+    public NavigationHistory(CompendiumEntry first) {
+        visits.add(new Visit(first));
+        index = 0;
+    }
+
+    @Nonnull
+    public CompendiumEntry getCurrent() {
+        return visits.get(index).entry;
+    }
+
+    /**
+     * Visit a page after the current one, which is left at the given scroll. Anything that could be gone forward to
+     * is forgotten.
+     */
+    public void push(CompendiumEntry entry, int scroll) {
+        visits.get(index).scroll = scroll;
+        visits.subList(index + 1, visits.size()).clear();
+        visits.add(new Visit(entry));
+        if(visits.size() > MAX_VISITS) {
+            visits.remove(0);
+        }
+        index = visits.size() - 1;
+    }
+
+    /**
+     * Go back or forward through the history, leaving the current page at the given scroll.
+     *
+     * @param offset -1 to go back, 1 to go forward.
+     * @return The scroll the page that is now current was left at, or -1 if there was nothing to go to.
+     */
+    public int go(int offset, int scroll) {
+        int next = index + offset;
+        if(next < 0 || next >= visits.size()) {
+            return -1;
+        }
+        visits.get(index).scroll = scroll;
+        index = next;
+        return visits.get(index).scroll;
+    }
+
+    /**
+     * Swap the entries of every visit, such as for new versions of them.
+     */
+    public void replaceAll(UnaryOperator<CompendiumEntry> replacer) {
+        for(Visit visit : visits) {
+            visit.entry = replacer.apply(visit.entry);
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package eutros.omnicompendium.gui;
+
+import eutros.omnicompendium.gui.entry.CompendiumEntry;
+import eutros.omnicompendium.gui.entry.TitleIndex;
+import eutros.omnicompendium.gui.render.DrawList;
+import net.minecraft.util.text.TextFormatting;
+
+import java.util.List;
+
+/**
+ * Goes to a page by its title or file name, matched fuzzily as it is typed.
+ *
+ * @see TitleIndex
+ */
+public class QuickSwitcher extends ListPanel<CompendiumEntry> {
+
+    private static final int MAX_RESULTS = 50;
+
+    private final TitleIndex.Search search = new TitleIndex.Search();
+
+    public QuickSwitcher(GuiCompendium compendium) {
+        super(compendium);
+    }
+
+    @Override
+    protected List<CompendiumEntry> query(String query) {
+        return search.update(query, MAX_RESULTS);
+    }
+
+    @Override
+    protected int getRowHeight() {
+        return fr.FONT_HEIGHT + PADDING;
+    }
+
+    @Override
+    protected void addRow(DrawList list, CompendiumEntry entry, int x, int y, int width) {
+        String row = TextFormatting.BOLD + entry.getTitle();
+        if(entry.source != null) {
+            row += TextFormatting.RESET + "" + TextFormatting.GRAY + "  " + entry.source.getName();
+        }
+        list.addText(fr.trimStringToWidth(row, width), x, y, 1, 0xFF000000);
+    }
+
+    @Override
+    protected void open(CompendiumEntry entry) {
+        compendium.openEntry(entry);
+    }
+
+    @Override
+    protected String getHint() {
+        return "omnicompendium.switcher.hint";
+    }
+
+}
@@ -0,0 +1,50 @@
+package eutros.omnicompendium.gui;
+
+import eutros.omnicompendium.gui.entry.SearchIndex;
+import eutros.omnicompendium.gui.render.DrawList;
+import net.minecraft.util.text.TextFormatting;
+
+import java.util.List;
+
+/**
+ * Lists the entries that best match what is typed, with a snippet of each.
+ * <p>
+ * Searched again on every keystroke, since the {@link SearchIndex} answers well within a frame.
+ * Opening a result highlights the matched terms on its page.
+ */
+public class SearchPanel extends ListPanel<SearchIndex.Result> {
+
+    private static final int MAX_RESULTS = 50;
+
+    public SearchPanel(GuiCompendium compendium) {
+        super(compendium);
+    }
+
+    @Override
+    protected List<SearchIndex.Result> query(String query) {
+        return SearchIndex.INSTANCE.search(query, MAX_RESULTS);
+    }
+
+    @Override
+    protected int getRowHeight() {
+        return fr.FONT_HEIGHT * 2 + PADDING;
+    }
+
+    @Override
+    protected void addRow(DrawList list, SearchIndex.Result result, int x, int y, int width) {
+        list.addText(fr.trimStringToWidth(TextFormatting.BOLD + result.entry.getTitle(), width), x, y, 1, 0xFF000000);
+        list.addText(fr.trimStringToWidth(result.getSnippet(), width), x, y + fr.FONT_HEIGHT, 1, TEXT_COLOR);
+    }
+
+    @Override
+    protected void open(SearchIndex.Result result) {
+        compendium.openEntry(result.entry);
+        result.entry.highlight(result.terms);
+    }
+
+    @Override
+    protected String getHint() {
+        return "omnicompendium.search.hint";
+    }
+
+}
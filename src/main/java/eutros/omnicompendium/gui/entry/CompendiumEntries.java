@@ -1,15 +1,21 @@
 package eutros.omnicompendium.gui.entry;
 
+import eutros.omnicompendium.gui.GuiCompendium;
 import eutros.omnicompendium.helper.FileHelper;
+import eutros.omnicompendium.loader.EntryIndex;
+import eutros.omnicompendium.loader.GitLoader;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.resources.I18n;
 import net.minecraft.util.ResourceLocation;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.ObjectId;
 
 import javax.annotation.Nullable;
 import java.io.*;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -24,9 +30,23 @@ public class CompendiumEntries {
 
     public static final String UNTITLED = I18n.format("omnicompendium.entry.untitled");
 
-    private static Map<String, CompendiumEntry> entryMap = new HashMap<>();
+    private static Map<String, CompendiumEntry> entryMap = new ConcurrentHashMap<>();
     public static final List<CompendiumEntry> listEntries = new ArrayList<>();
 
+    // whether the entry list has been built from the files this session, rather than only from the saved index
+    private static volatile boolean indexed = false;
+
+    // the file of the hovered link, and its entry once it is being laid out; only changed on the client thread
+    @Nullable
+    private static volatile File hoverSource = null;
+    @Nullable
+    private static CompendiumEntry hoverEntry = null;
+
+    // held while the entry list and the saved index are changed, so that the git and watcher threads take turns
+    private static final Object updateLock = new Object();
+
+    private static final ForkJoinPool indexer = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
     private static Pattern serializer = Pattern.compile("[.^$*+?()\\[{\\\\|]");
 
     private static String serializeRegex(String s) {
@@ -38,17 +58,81 @@ public class CompendiumEntries {
     public static void setLinkChecker(String url) {
         linkChecker = Pattern.compile("(" +
                 serializeRegex(url) +
-                "/blob/.+?/)?(?<relative>([a-zA-Z_\\-\\s0-9.]+)\\.md)$");
+                "/blob/.+?/)?(?<relative>([a-zA-Z_\\-\\s0-9.]+)\\.md)(#.*)?$");
     }
 
+    /**
+     * Get the entry for a file, parsing it if it hasn't been yet.
+     * <p>
+     * Safe to call from any thread. The file is parsed outside of any lock, so if two threads parse the same file
+     * at once, only the first one to finish is kept.
+     */
     public static Optional<CompendiumEntry> fromSource(File source) {
-        return Optional.ofNullable(entryMap.computeIfAbsent(source.toString(), src -> {
-            try {
-                return new CompendiumEntry(String.join("\n", Files.readAllLines(new File(src).toPath())), source);
-            } catch(IOException e) {
-                return null;
-            }
-        }));
+        String key = source.toString();
+        CompendiumEntry entry = entryMap.get(key);
+        if(entry != null) {
+            return Optional.of(entry);
+        }
+
+        try {
+            return Optional.of(putEntry(new CompendiumEntry(source, EntryMetadata.read(source))));
+        } catch(IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return The entry for a file, only if it has already been read.
+     */
+    public static Optional<CompendiumEntry> getIfRead(File source) {
+        return Optional.ofNullable(entryMap.get(source.toString()));
+    }
+
+    /**
+     * Start reading and laying out the entry of a hovered link, so it can be opened without waiting.
+     * Entries that haven't been read yet are read on the indexer.
+     * <p>
+     * Only one hover is prefetched at a time: moving to another link, or off links altogether, cancels the
+     * layout of the last one if it hasn't finished, and a read that is overtaken is never laid out.
+     * <p>
+     * Must be called on the client thread.
+     *
+     * @param source The file of the entry the hovered link goes to, or null if no link is hovered any more.
+     */
+    public static void prefetchHovered(@Nullable File source) {
+        if(Objects.equals(source, hoverSource)) return;
+
+        hoverSource = source;
+        if(hoverEntry != null) {
+            hoverEntry.cancelPrefetch();
+            hoverEntry = null;
+        }
+        if(source == null) return;
+
+        Optional<CompendiumEntry> read = getIfRead(source);
+        if(read.isPresent()) {
+            startHoverPrefetch(read.get());
+            return;
+        }
+        indexer.execute(() -> {
+            if(!source.equals(hoverSource)) return;
+            fromSource(source).ifPresent(entry ->
+                    Minecraft.getMinecraft().addScheduledTask(() -> {
+                        if(source.equals(hoverSource)) {
+                            startHoverPrefetch(entry);
+                        }
+                    }));
+        });
+    }
+
+    private static void startHoverPrefetch(CompendiumEntry entry) {
+        hoverEntry = entry;
+        entry.prefetchLayout();
+    }
+
+    private static CompendiumEntry putEntry(CompendiumEntry entry) {
+        CompendiumEntry existing = entryMap.putIfAbsent(Objects.requireNonNull(entry.source).toString(), entry);
+        return existing != null ? existing : entry;
     }
 
     public static Optional<CompendiumEntry> fromResourceLocation(ResourceLocation location) {
@@ -65,6 +149,13 @@ public class CompendiumEntries {
     }
 
     public static Optional<CompendiumEntry> fromLink(String link, @Nullable File source) {
+        return resolveLink(link, source).flatMap(CompendiumEntries::fromSource);
+    }
+
+    /**
+     * @return The file of the entry a link points to, without reading it, or nothing if the link isn't to an entry.
+     */
+    public static Optional<File> resolveLink(String link, @Nullable File source) {
         Matcher matcher = linkChecker.matcher(link);
         if(!matcher.matches()) {
             return Optional.empty();
@@ -72,27 +163,187 @@ public class CompendiumEntries {
         String relativePath = matcher.group("relative");
 
         return FileHelper.getRelative(source, relativePath)
-                .map(Path::toFile)
-                .flatMap(CompendiumEntries::fromSource);
+                .map(Path::normalize)
+                .map(Path::toFile);
     }
 
+    /**
+     * Show the entries as they were indexed by the last refresh, without reading any of them,
+     * if nothing is shown yet.
+     */
+    public static void loadIndex() {
+        synchronized(listEntries) {
+            if(!listEntries.isEmpty()) return;
+        }
+
+        List<CompendiumEntry> entries = new ArrayList<>();
+        EntryIndex.load().getEntries().forEach((path, metadata) -> {
+            File file = new File(GitLoader.DIR, path);
+            if(file.isFile()) {
+                entries.add(putEntry(new CompendiumEntry(file, metadata)));
+            }
+        });
+        entries.sort(Comparator.comparing(CompendiumEntry::getTitle));
+
+        synchronized(listEntries) {
+            if(listEntries.isEmpty()) {
+                listEntries.addAll(entries);
+                TitleIndex.rebuild(entries);
+                indexer.execute(() -> LinkGraph.rebuild(entries));
+            }
+        }
+    }
+
+    /**
+     * Index every entry again, in parallel, and replace the entry list with them once they are all done.
+     * <p>
+     * Only entries that changed since the last refresh are read, the rest are taken from the saved {@link EntryIndex}.
+     * Blocks until the new list is published, and waits for any other change to the list to finish first.
+     */
     public static void refresh() {
-        entryMap.clear();
-        listEntries.clear();
-        new Thread(() ->
-                FileHelper.getEntries()
-                        .map(CompendiumEntries::fromSource)
-                        .filter(Optional::isPresent)
-                        .map(Optional::get)
-                        .forEach(entry -> {
-                            synchronized(listEntries) {
-                                int index = Collections.binarySearch(listEntries, entry, Comparator.comparing(CompendiumEntry::getTitle));
-                                if(index < 0) index = -index - 1;
-
-                                listEntries.add(index, entry);
-                            }
-                        })
-        ).start();
+        synchronized(updateLock) {
+            entryMap.clear();
+            List<File> files = FileHelper.getEntries().collect(Collectors.toList());
+            Map<File, ObjectId> ids = GitLoader.getBlobIds(files);
+            EntryIndex stored = EntryIndex.load();
+            EntryIndex updated = new EntryIndex();
+
+            // parallel streams run on the pool they are started from
+            List<CompendiumEntry> entries = indexer.submit(() -> files.parallelStream()
+                    .map(file -> index(file, ids.get(file), stored, updated))
+                    .filter(Optional::isPresent)
+                    .map(Optional::get)
+                    .sorted(Comparator.comparing(CompendiumEntry::getTitle))
+                    .collect(Collectors.toList())
+            ).join();
+            updated.save();
+
+            synchronized(listEntries) {
+                listEntries.clear();
+                listEntries.addAll(entries);
+                TitleIndex.rebuild(entries);
+                // every entry has to be read for this, so it isn't waited for
+                SearchIndex.INSTANCE.rebuildLater(entries);
+            }
+            indexed = true;
+
+            indexer.execute(() -> LinkGraph.rebuild(entries));
+        }
+    }
+
+    /**
+     * Index only the entries that were added, modified, renamed or deleted by a pull, keeping the rest as they are.
+     * <p>
+     * Falls back to a {@link #refresh()} if the changes aren't known, or the entries haven't been indexed yet.
+     * Waits for any other change to the list to finish first.
+     *
+     * @param changes The changes returned by {@link GitLoader#syncRepo()}.
+     */
+    public static void update(@Nullable List<DiffEntry> changes) {
+        synchronized(updateLock) {
+            if(changes == null || !indexed) {
+                refresh();
+                return;
+            }
+
+            Set<File> removed = new HashSet<>();
+            Map<File, ObjectId> added = new HashMap<>();
+            for(DiffEntry change : changes) {
+                File oldFile = GitLoader.getFile(change, DiffEntry.Side.OLD);
+                if(oldFile != null && FileHelper.isEntry(oldFile.toPath())) {
+                    removed.add(oldFile);
+                }
+                File newFile = GitLoader.getFile(change, DiffEntry.Side.NEW);
+                if(newFile != null && FileHelper.isEntry(newFile.toPath())) {
+                    removed.add(newFile); // replaced, if it was there already
+                    added.put(newFile, change.getNewId().toObjectId());
+                }
+            }
+            replace(removed, added);
+        }
+    }
+
+    /**
+     * Index the given entry files again, such as after they were edited in place.
+     * Files that no longer exist are removed from the list. Waits for any other change to the list to finish first.
+     */
+    public static void reindex(Collection<File> files) {
+        synchronized(updateLock) {
+            if(!indexed) {
+                return; // they'll be read by the first refresh anyway
+            }
+            List<File> existing = files.stream().filter(File::isFile).collect(Collectors.toList());
+            replace(new HashSet<>(files), GitLoader.getBlobIds(existing));
+        }
+    }
+
+    /**
+     * Remove some entries from the index and the entry list, and add others in their place,
+     * swapping the open pages for their new versions. Must be called while holding the update lock.
+     */
+    private static void replace(Set<File> removed, Map<File, ObjectId> added) {
+        if(removed.isEmpty()) {
+            return;
+        }
+
+        EntryIndex index = EntryIndex.load();
+        Map<File, CompendiumEntry> old = new HashMap<>();
+        for(File file : removed) {
+            CompendiumEntry entry = entryMap.remove(file.toString());
+            if(entry != null) {
+                old.put(file, entry);
+            }
+            index.remove(GitLoader.getRepoPath(file));
+        }
+        List<CompendiumEntry> fresh = new ArrayList<>();
+        Map<CompendiumEntry, CompendiumEntry> replaced = new HashMap<>();
+        added.forEach((file, id) -> index(file, id, index, index).ifPresent(entry -> {
+            fresh.add(entry);
+            CompendiumEntry previous = old.get(file);
+            if(previous != null) {
+                replaced.put(previous, entry);
+            }
+        }));
+        index.save();
+
+        if(!replaced.isEmpty()) {
+            Minecraft.getMinecraft().addScheduledTask(() -> GuiCompendium.replaceEntries(replaced));
+        }
+
+        synchronized(listEntries) {
+            List<CompendiumEntry> entries = new ArrayList<>(listEntries.size() + fresh.size());
+            for(CompendiumEntry entry : listEntries) {
+                if(!removed.contains(entry.source)) {
+                    entries.add(entry);
+                }
+            }
+            entries.addAll(fresh);
+            entries.sort(Comparator.comparing(CompendiumEntry::getTitle));
+
+            listEntries.clear();
+            listEntries.addAll(entries);
+            TitleIndex.rebuild(entries);
+            // queued in the same order as the lists are published
+            SearchIndex.INSTANCE.replaceLater(new ArrayList<>(old.values()), fresh);
+            indexer.execute(() -> LinkGraph.rebuild(entries));
+        }
+    }
+
+    private static Optional<CompendiumEntry> index(File file, @Nullable ObjectId id, EntryIndex stored, EntryIndex updated) {
+        if(id == null) {
+            return Optional.empty();
+        }
+        String path = GitLoader.getRepoPath(file);
+        EntryMetadata metadata = stored.get(path, id);
+        if(metadata == null) {
+            try {
+                metadata = EntryMetadata.read(file);
+            } catch(IOException e) {
+                return Optional.empty();
+            }
+        }
+        updated.put(path, id, metadata);
+        return Optional.of(putEntry(new CompendiumEntry(file, metadata)));
     }
 
 }
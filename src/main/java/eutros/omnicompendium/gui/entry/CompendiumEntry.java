@@ -3,15 +3,22 @@ package eutros.omnicompendium.gui.entry;
 import eutros.omnicompendium.Omnicompendium;
 import eutros.omnicompendium.gui.ClickableComponent;
 import eutros.omnicompendium.gui.GuiCompendium;
+import eutros.omnicompendium.gui.markdown.PageLayout;
 import eutros.omnicompendium.gui.markdown.RenderingVisitor;
-import eutros.omnicompendium.gui.markdown.TitleVisitor;
+import eutros.omnicompendium.gui.markdown.MarkdownScanner;
+import eutros.omnicompendium.gui.render.DrawList;
+import eutros.omnicompendium.gui.render.PageRaster;
 import eutros.omnicompendium.helper.FileHelper;
 import eutros.omnicompendium.helper.MouseHelper;
 import eutros.omnicompendium.helper.RenderHelper;
+import eutros.omnicompendium.helper.TextHelper;
+import eutros.omnicompendium.loader.ImageLoader;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.renderer.GlStateManager;
+import net.minecraft.client.resources.I18n;
 import net.minecraft.client.settings.GameSettings;
 import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.text.TextFormatting;
 import org.commonmark.Extension;
 import org.commonmark.ext.gfm.strikethrough.StrikethroughExtension;
 import org.commonmark.ext.gfm.tables.TablesExtension;
@@ -22,48 +29,109 @@ import org.lwjgl.input.Mouse;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.awt.*;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class CompendiumEntry {
 
     public static final int SCROLL_BAR_WIDTH = 10;
     public static final int PAD_BOTTOM = 10;
     public static final int SCROLL_BAR_OFFSET = 2;
-    private final Node node;
+    public static final int HIGHLIGHT_COLOR = 0x60FFD700;
+    public static final long HOVER_PREFETCH_DELAY = 150; // milliseconds
+
+    // parsers are thread safe, so one is shared by every entry
+    private static final List<Extension> EXTENSIONS = Arrays.asList(
+            TablesExtension.create(),
+            StrikethroughExtension.create());
+    public static final Parser PARSER = Parser.builder()
+            .extensions(EXTENSIONS)
+            .build();
+
+    // the parsed document is only kept for as long as memory allows, and parsed again when needed
+    private SoftReference<Node> node = new SoftReference<>(null);
+    @Nullable
+    private final String markdown;
+    public final EntryMetadata metadata;
     private final String title;
     private GuiCompendium compendium;
     private float scrollBarClicked = -1;
+    @Nullable
+    private String listTitle = null;
+    private int listTitleWidth = -1;
+    private int listTitleGeneration;
 
     @Nullable
-    public List<ClickableComponent> clickableComponents = null;
+    private PageLayout layout = null;
+    @Nullable
+    private CompletableFuture<PageLayout> pendingLayout = null;
+    private int pendingWidth;
+    private int pendingGeneration;
+    private int pendingGraphGeneration;
+    private int pendingFontGeneration;
     @Nullable
     public final File source;
     public int scroll = 0;
 
-    public CompendiumEntry(String markdown, @Nullable File source) {
-        List<Extension> extensions = Arrays.asList(
-                TablesExtension.create(),
-                StrikethroughExtension.create());
-        Parser parser = Parser.builder()
-                .extensions(extensions)
-                .build();
+    @Nullable
+    private Set<String> highlight = null;
+    @Nullable
+    private PageLayout highlightLayout = null;
+    private List<int[]> highlightRects = Collections.emptyList();
+    private final DrawList highlightList = new DrawList();
 
+    @Nullable
+    private ClickableComponent hovered = null;
+    private long hoverStart;
+    private boolean hoverPrefetched;
+
+    /**
+     * An entry read from a file, which isn't read again until the entry is opened.
+     */
+    public CompendiumEntry(File source, EntryMetadata metadata) {
         this.source = source;
-        node = parser.parse(markdown);
+        this.metadata = metadata;
+        markdown = null;
 
-        TitleVisitor visitor = new TitleVisitor();
-        node.accept(visitor);
-        if(visitor.title != null) {
-            title = visitor.title;
+        String heading = metadata.getTitle();
+        title = heading != null ? heading : FileHelper.fileNameToTitle(source);
+    }
+
+    /**
+     * An entry with the given contents, which are kept in memory.
+     */
+    public CompendiumEntry(String markdown, @Nullable File source) {
+        this.source = source;
+        this.markdown = markdown;
+
+        try {
+            metadata = MarkdownScanner.scan(new BufferedReader(new StringReader(markdown)));
+        } catch(IOException e) {
+            throw new UncheckedIOException(e); // can't happen
+        }
+        String heading = metadata.getTitle();
+        if(heading != null) {
+            title = heading;
         } else if(source != null) {
             title = FileHelper.fileNameToTitle(source);
         } else {
@@ -71,6 +139,42 @@ public class CompendiumEntry {
         }
     }
 
+    /**
+     * Get the parsed document, parsing it again if it was never parsed or has since been reclaimed.
+     * <p>
+     * Safe to call from any thread.
+     */
+    @Nonnull
+    public synchronized Node getNode() {
+        Node node = this.node.get();
+        if(node == null) {
+            node = PARSER.parse(readMarkdown());
+            this.node = new SoftReference<>(node);
+        }
+        return node;
+    }
+
+    /**
+     * Get the markdown of this entry, reading it again if it came from a file.
+     * <p>
+     * Safe to call from any thread.
+     */
+    @Nonnull
+    public String readMarkdown() {
+        if(markdown != null) {
+            return markdown;
+        }
+        if(source == null) {
+            return "";
+        }
+        try {
+            return String.join("\n", Files.readAllLines(source.toPath()));
+        } catch(IOException e) {
+            Omnicompendium.LOGGER.warn("Failed to read entry " + source, e);
+            return I18n.format("omnicompendium.entry.broken");
+        }
+    }
+
     public void draw() {
         RenderHelper.setupCamera(
                 GuiCompendium.GUI_X + GuiCompendium.ENTRY_X,
@@ -79,14 +183,10 @@ public class CompendiumEntry {
                 GuiCompendium.ENTRY_HEIGHT
         );
 
-        if(clickableComponents == null) {
-            clickableComponents = new ArrayList<>();
-            RenderingVisitor.INSTANCE.entry = this;
-        }
         GlStateManager.pushMatrix();
         GlStateManager.translate(0, -scroll, 0);
-        RenderingVisitor.INSTANCE.source = source;
-        node.accept(RenderingVisitor.INSTANCE);
+        PageRaster.INSTANCE.draw(getLayout(), scroll, scroll + GuiCompendium.ENTRY_HEIGHT);
+        drawHighlights();
         GlStateManager.popMatrix();
 
         RenderHelper.resetCamera();
@@ -94,13 +194,68 @@ public class CompendiumEntry {
         RenderHelper.drawScrollBar(getScrollBar(), scrollBarClicked);
     }
 
+    /**
+     * Get the layout of this entry, laying it out again only if the entry width, loaded images, links or font have changed.
+     * <p>
+     * A stale layout keeps being shown while the new one is made on the layout thread.
+     * If there is nothing to show yet, the entry is laid out right away instead of waiting.
+     * The layout is kept in the {@link LayoutCache}.
+     */
+    @Nonnull
+    public PageLayout getLayout() {
+        LayoutCache.INSTANCE.touch(this);
+        if(layout != null && layout.isValid(GuiCompendium.ENTRY_WIDTH,
+                ImageLoader.getGeneration(),
+                LinkGraph.get().generation,
+                TextHelper.getGeneration())) {
+            return layout;
+        }
+
+        CompletableFuture<PageLayout> pending = prefetchLayout();
+        if(layout == null && !pending.isDone()) {
+            pending.complete(RenderingVisitor.layout(getNode(), this, source, GuiCompendium.ENTRY_WIDTH));
+        }
+        if(pending.isDone()) {
+            layout = pending.join();
+            pendingLayout = null;
+        }
+        return Objects.requireNonNull(layout);
+    }
+
+    /**
+     * Start laying this entry out on the layout thread, if it isn't already, so it is ready when it is shown.
+     * The layout is kept in the {@link LayoutCache}, so it is dropped again if the entry isn't shown soon enough.
+     * <p>
+     * Must be called on the client thread.
+     */
+    @Nonnull
+    public CompletableFuture<PageLayout> prefetchLayout() {
+        LayoutCache.INSTANCE.touch(this);
+        int width = GuiCompendium.ENTRY_WIDTH;
+        int generation = ImageLoader.getGeneration();
+        int graphGeneration = LinkGraph.get().generation;
+        int fontGeneration = TextHelper.getGeneration();
+        if(pendingLayout == null
+                || pendingWidth != width
+                || pendingGeneration != generation
+                || pendingGraphGeneration != graphGeneration
+                || pendingFontGeneration != fontGeneration) {
+            pendingLayout = RenderingVisitor.layoutAsync(this::getNode, this, source, width);
+            pendingWidth = width;
+            pendingGeneration = generation;
+            pendingGraphGeneration = graphGeneration;
+            pendingFontGeneration = fontGeneration;
+        }
+        return pendingLayout;
+    }
+
     private int[] getScrollBar() {
         float maxScroll = getMaxScroll();
         float scrollPct = scroll / maxScroll;
 
         int barHeight = (int) (
                 GuiCompendium.ENTRY_HEIGHT *
-                        ((float) GuiCompendium.ENTRY_HEIGHT / (Math.max(RenderingVisitor.INSTANCE.y + PAD_BOTTOM, GuiCompendium.ENTRY_HEIGHT)))
+                        ((float) GuiCompendium.ENTRY_HEIGHT / (Math.max(getLayout().height + PAD_BOTTOM, GuiCompendium.ENTRY_HEIGHT)))
         );
         int barY = (int) ((GuiCompendium.ENTRY_HEIGHT - barHeight) * scrollPct);
 
@@ -128,11 +283,9 @@ public class CompendiumEntry {
     }
 
     public boolean mouseClicked(int mouseX, int mouseY, int mouseButton) {
-        if(clickableComponents != null) {
-            for(ClickableComponent component : clickableComponents) {
-                if(component.onClick(mouseX, mouseY + scroll, mouseButton))
-                    return true;
-            }
+        for(ClickableComponent component : getLayout().getComponentsAt(mouseX, mouseY + scroll)) {
+            if(component.onClick(mouseX, mouseY + scroll, mouseButton))
+                return true;
         }
 
         if(mouseButton == 0) {
@@ -166,12 +319,107 @@ public class CompendiumEntry {
 
     public CompendiumEntry setCompendium(GuiCompendium compendium) {
         this.compendium = compendium;
-        clickableComponents = null;
         return this;
     }
 
     public void reset() {
         scroll = 0;
+        highlight = null;
+    }
+
+    /**
+     * Show this entry as it was left, at the given scroll, without highlights.
+     */
+    public void restore(int scroll) {
+        highlight = null;
+        this.scroll = MathHelper.clamp(scroll, 0, getMaxScroll());
+    }
+
+    /**
+     * Let go of the layout of this entry, so it can be reclaimed. It is laid out again when it is next shown.
+     * A layout that hasn't been started yet is skipped.
+     */
+    public void releaseLayout() {
+        if(pendingLayout != null) {
+            pendingLayout.cancel(false);
+        }
+        layout = null;
+        pendingLayout = null;
+        highlightLayout = null;
+        highlightRects = Collections.emptyList();
+        hovered = null;
+    }
+
+    /**
+     * Stop laying this entry out if it was only prefetched, and the layout hasn't finished yet.
+     * The shown entry is left alone.
+     */
+    void cancelPrefetch() {
+        if(pendingLayout != null && !pendingLayout.isDone() && !LayoutCache.INSTANCE.isShown(this)) {
+            pendingLayout.cancel(false);
+            pendingLayout = null;
+        }
+    }
+
+    /**
+     * Highlight every occurrence of some search terms, and scroll to the first one.
+     * Cleared when the entry is next opened.
+     */
+    public void highlight(Set<String> terms) {
+        highlight = terms;
+        List<int[]> rects = getHighlightRects();
+        if(!rects.isEmpty()) {
+            scroll = MathHelper.clamp(rects.get(0)[1] - GuiCompendium.ENTRY_HEIGHT / 3, 0, getMaxScroll());
+        }
+    }
+
+    private List<int[]> getHighlightRects() {
+        PageLayout layout = getLayout();
+        if(highlight == null) {
+            return Collections.emptyList();
+        }
+        if(highlightLayout != layout) {
+            highlightRects = layout.findTerms(highlight);
+            highlightLayout = layout;
+        }
+        return highlightRects;
+    }
+
+    private void drawHighlights() {
+        if(highlight == null) return;
+
+        int minY = scroll;
+        int maxY = scroll + GuiCompendium.ENTRY_HEIGHT;
+        highlightList.begin();
+        for(int[] rect : getHighlightRects()) {
+            if(rect[3] >= minY && rect[1] <= maxY) {
+                highlightList.addRect(rect[0], rect[1], rect[2], rect[3], HIGHLIGHT_COLOR);
+            }
+        }
+        highlightList.draw();
+    }
+
+    /**
+     * Scroll to the heading with the given slug, if there is one.
+     *
+     * @return Whether there was a heading to scroll to.
+     */
+    public boolean jumpTo(String slug) {
+        PageLayout.Anchor anchor = getLayout().getAnchor(slug);
+        if(anchor == null) {
+            return false;
+        }
+        scroll = MathHelper.clamp(anchor.y, 0, getMaxScroll());
+        return true;
+    }
+
+    /**
+     * Scroll to the place in this entry that an older version of it is scrolled to.
+     *
+     * @see PageLayout#findPlace(PageLayout, int)
+     */
+    public void scrollLike(CompendiumEntry old) {
+        scroll = MathHelper.clamp(getLayout().findPlace(old.getLayout(), old.scroll), 0, getMaxScroll());
     }
 
     public static final double SCROLL_SENSITIVITY = 0.2;
@@ -200,20 +448,46 @@ public class CompendiumEntry {
     }
 
     private int getMaxScroll() {
-        return Math.max(0, RenderingVisitor.INSTANCE.y - GuiCompendium.ENTRY_HEIGHT + PAD_BOTTOM);
+        return Math.max(0, getLayout().height - GuiCompendium.ENTRY_HEIGHT + PAD_BOTTOM);
+    }
+
+    /**
+     * Track the link under the mouse, and prefetch the entry it goes to once the mouse has rested on it for a moment,
+     * so that moving the mouse across the page doesn't read every entry it passes over.
+     *
+     * @param mouseX The mouse x, relative to the entry, or -1 if the mouse isn't over it.
+     */
+    public void hover(int mouseX, int mouseY) {
+        ClickableComponent component = null;
+        if(mouseX >= 0) {
+            for(ClickableComponent candidate : getLayout().getComponentsAt(mouseX, mouseY + scroll)) {
+                if(candidate.getCallback() instanceof LinkFunction) {
+                    component = candidate;
+                    break;
+                }
+            }
+        }
+
+        if(component != hovered) {
+            if(hoverPrefetched) {
+                CompendiumEntries.prefetchHovered(null);
+            }
+            hovered = component;
+            hoverStart = Minecraft.getSystemTime();
+            hoverPrefetched = false;
+        } else if(hovered != null && !hoverPrefetched && Minecraft.getSystemTime() - hoverStart >= HOVER_PREFETCH_DELAY) {
+            hoverPrefetched = true;
+            ((LinkFunction) Objects.requireNonNull(hovered.getCallback())).prefetch();
+        }
     }
 
     @Nullable
     public List<String> getTooltip(int mouseX, int mouseY) {
-        if(clickableComponents != null) {
-            mouseY += scroll;
-            for(ClickableComponent component : clickableComponents) {
-                if(component.isHovered(mouseX, mouseY)) {
-                    List<String> tooltip = component.getTooltip();
-                    if(tooltip != null) {
-                        return tooltip;
-                    }
-                }
+        mouseY += scroll;
+        for(ClickableComponent component : getLayout().getComponentsAt(mouseX, mouseY)) {
+            List<String> tooltip = component.getTooltip();
+            if(tooltip != null) {
+                return tooltip;
             }
         }
 
@@ -229,16 +503,45 @@ public class CompendiumEntry {
         return title;
     }
 
+    /**
+     * @return The title as it is shown in the entry list.
+     */
+    @Nonnull
+    public String getListTitle() {
+        if(listTitle == null) {
+            listTitle = TextFormatting.BOLD + title;
+        }
+        return listTitle;
+    }
+
+    public int getListTitleWidth() {
+        if(listTitleWidth < 0 || listTitleGeneration != TextHelper.getGeneration()) {
+            listTitleGeneration = TextHelper.getGeneration();
+            listTitleWidth = Minecraft.getMinecraft().fontRenderer.getStringWidth(getListTitle());
+        }
+        return listTitleWidth;
+    }
+
     public LinkFunction linkFunction(String destination) {
-        return new LinkFunction(destination);
+        return new LinkFunction(destination, null);
+    }
+
+    /**
+     * @return A link straight to another entry, which doesn't need resolving.
+     */
+    public LinkFunction linkFunction(CompendiumEntry target) {
+        return new LinkFunction(target.source != null ? target.source.getPath() : target.getTitle(), target);
     }
 
     public class LinkFunction implements ClickableComponent.ClickFunction {
 
         private final String link;
+        @Nullable
+        private final CompendiumEntry target;
 
-        public LinkFunction(String link) {
+        public LinkFunction(String link, @Nullable CompendiumEntry target) {
             this.link = link;
+            this.target = target;
         }
 
         @Override
@@ -246,6 +549,7 @@ public class CompendiumEntry {
             if(mouseButton != 0) return false;
 
             try {
+                if(tryJumpInPage()) return true;
                 if(Desktop.isDesktopSupported()) {
                     Desktop desktop = Desktop.getDesktop();
 
@@ -260,11 +564,64 @@ public class CompendiumEntry {
             return false;
         }
 
+        /**
+         * @return The file of the entry this links to, if it is to one. Nothing is read to find it.
+         */
+        private Optional<File> getEntryFile() {
+            CompendiumEntry resolved = target != null ? target : LinkGraph.get().resolve(CompendiumEntry.this, link);
+            // the graph may be older than the entry list, so only the file is taken from it
+            if(resolved != null && resolved.source != null) {
+                return Optional.of(resolved.source);
+            }
+            return CompendiumEntries.resolveLink(link, source);
+        }
+
+        /**
+         * Start reading and laying out the entry this links to, if it is one, so it is ready by the time it is clicked.
+         * <p>
+         * Must be called on the client thread, though nothing is read on it.
+         */
+        public void prefetch() {
+            CompendiumEntries.prefetchHovered(getEntryFile().orElse(null));
+        }
+
+        /**
+         * @return The slug of the heading this links to, if it has one.
+         */
+        @Nullable
+        private String getFragment() {
+            int i = link.indexOf('#');
+            if(i == -1) {
+                return null;
+            }
+            try {
+                return URLDecoder.decode(link.substring(i + 1), StandardCharsets.UTF_8.name()).toLowerCase(Locale.ROOT);
+            } catch(IllegalArgumentException | UnsupportedEncodingException e) {
+                return null;
+            }
+        }
+
+        protected boolean tryJumpInPage() {
+            if(!link.startsWith("#")) return false;
+
+            String fragment = getFragment();
+            if(fragment == null || getLayout().getAnchor(fragment) == null) return false;
+
+            // visited again so that going back returns to where the link was
+            getCompendium().openEntry(CompendiumEntry.this);
+            jumpTo(fragment);
+            return true;
+        }
+
         protected boolean tryOpenAsEntry() {
-            Optional<CompendiumEntry> linkedEntry = CompendiumEntries.fromLink(link, source);
+            Optional<CompendiumEntry> linkedEntry = getEntryFile().flatMap(CompendiumEntries::fromSource);
             GuiCompendium gui = getCompendium();
             if(linkedEntry.isPresent()) {
                 gui.openEntry(linkedEntry.get());
+                String fragment = getFragment();
+                if(fragment != null) {
+                    linkedEntry.get().jumpTo(fragment);
+                }
                 return true;
             }
             return false;
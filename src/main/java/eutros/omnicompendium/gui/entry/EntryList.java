@@ -1,9 +1,10 @@
 package eutros.omnicompendium.gui.entry;
 
 import eutros.omnicompendium.gui.GuiCompendium;
+import eutros.omnicompendium.gui.render.DrawList;
 import eutros.omnicompendium.helper.RenderHelper;
 import net.minecraft.client.Minecraft;
-import net.minecraft.client.renderer.GlStateManager;
+import net.minecraft.client.renderer.texture.ITextureObject;
 import net.minecraft.util.math.MathHelper;
 import net.minecraft.util.text.TextFormatting;
 import org.lwjgl.input.Mouse;
@@ -18,6 +19,8 @@ public class EntryList {
 
     private static final double SCROLL_SENSITIVITY = 0.2;
 
+    private final DrawList drawList = new DrawList();
+
     private int scroll;
     public final List<CompendiumEntry> entries;
     private final GuiCompendium compendium;
@@ -38,19 +41,28 @@ public class EntryList {
                 GuiCompendium.ENTRY_LIST_WIDTH,
                 GuiCompendium.ENTRY_LIST_HEIGHT
         );
-        GlStateManager.pushMatrix();
         Minecraft mc = Minecraft.getMinecraft();
-        GlStateManager.translate(0, -scroll, 0);
+        int tex = getTextureId(mc);
+        float textY = (ICON_HEIGHT - mc.fontRenderer.FONT_HEIGHT) / 2F + 1;
+        float minU = 0;
+        float maxU = (float) GuiCompendium.ENTRY_LIST_WIDTH / GuiCompendium.TEX_SIZE;
+        float rowHeight = (float) ICON_HEIGHT / GuiCompendium.TEX_SIZE;
+        float rowV = (float) ICON_MIN_V / GuiCompendium.TEX_SIZE;
+        float selectedV = (float) (ICON_MIN_V + ICON_HEIGHT) / GuiCompendium.TEX_SIZE;
+
+        drawList.begin();
         synchronized(entries) {
-            for(CompendiumEntry entry : entries) {
-                GlStateManager.pushMatrix();
-
-                int titleX = 5;
+            // rows are all ICON_HEIGHT tall, so the visible ones can be found directly
+            int first = scroll / ICON_HEIGHT;
+            int last = Math.min(entries.size() - 1, (scroll + GuiCompendium.ENTRY_LIST_HEIGHT) / ICON_HEIGHT);
 
-                String title = TextFormatting.BOLD.toString() + entry.getTitle();
+            for(int i = first; i <= last; i++) {
+                CompendiumEntry entry = entries.get(i);
+                int y = i * ICON_HEIGHT - scroll;
 
+                int titleX = 5;
                 if(entry == currentPage) {
-                    int stringWidth = mc.fontRenderer.getStringWidth(title);
+                    int stringWidth = entry.getListTitleWidth();
                     if(stringWidth > GuiCompendium.ENTRY_LIST_WIDTH) {
                         titleX -= MathHelper.clamp(
                                 (int) (mc.world.getWorldTime() % stringWidth) - GuiCompendium.ENTRY_LIST_WIDTH / 2,
@@ -58,25 +70,24 @@ public class EntryList {
                                 stringWidth - GuiCompendium.ENTRY_LIST_WIDTH + 2 * titleX
                         );
                     }
+                    drawList.addTexture(tex, 0, y, GuiCompendium.ENTRY_LIST_WIDTH, ICON_HEIGHT, minU, selectedV, maxU, selectedV + rowHeight, 0xFF000000);
                 }
+                drawList.addTexture(tex, 0, y, GuiCompendium.ENTRY_LIST_WIDTH, ICON_HEIGHT, minU, rowV, maxU, rowV + rowHeight, 0xFF000000);
 
-                mc.fontRenderer.drawString(title, titleX, (ICON_HEIGHT - mc.fontRenderer.FONT_HEIGHT) / 2F + 1, 0xFF000000, false);
-
-                mc.getTextureManager().bindTexture(GuiCompendium.BOOK_GUI_TEXTURES);
-                GlStateManager.color(0, 0, 0, 1);
-
-                if(entry == currentPage) {
-                    compendium.drawTexturedModalRect(0, 0, 0, ICON_MIN_V + ICON_HEIGHT, GuiCompendium.ENTRY_LIST_WIDTH, ICON_HEIGHT);
-                }
-
-                GlStateManager.popMatrix();
-                compendium.drawTexturedModalRect(0, 0, 0, ICON_MIN_V, GuiCompendium.ENTRY_LIST_WIDTH, ICON_HEIGHT);
-
-                GlStateManager.translate(0, ICON_HEIGHT, 0);
+                drawList.addText(entry.getListTitle(), titleX, y + textY, 1, 0xFF000000);
             }
         }
+        drawList.draw();
         RenderHelper.resetCamera();
-        GlStateManager.popMatrix();
+    }
+
+    private static int getTextureId(Minecraft mc) {
+        ITextureObject texture = mc.getTextureManager().getTexture(GuiCompendium.BOOK_GUI_TEXTURES);
+        if(texture == null) {
+            mc.getTextureManager().bindTexture(GuiCompendium.BOOK_GUI_TEXTURES);
+            texture = mc.getTextureManager().getTexture(GuiCompendium.BOOK_GUI_TEXTURES);
+        }
+        return texture.getGlTextureId();
     }
 
     public boolean handleMouseInput(int mouseY) {
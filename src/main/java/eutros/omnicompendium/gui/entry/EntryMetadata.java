@@ -0,0 +1,45 @@
+package eutros.omnicompendium.gui.entry;
+
+import com.google.common.collect.ImmutableList;
+import eutros.omnicompendium.gui.markdown.MarkdownScanner;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * What is known about an entry without parsing it, as found by {@link MarkdownScanner} or stored in the
+ * {@link eutros.omnicompendium.loader.EntryIndex}.
+ */
+public class EntryMetadata {
+
+    public final List<String> headings;
+    public final List<String> links;
+    public final List<String> images;
+    public final int wordCount;
+
+    public EntryMetadata(List<String> headings, List<String> links, List<String> images, int wordCount) {
+        this.headings = ImmutableList.copyOf(headings);
+        this.links = ImmutableList.copyOf(links);
+        this.images = ImmutableList.copyOf(images);
+        this.wordCount = wordCount;
+    }
+
+    public static EntryMetadata read(File file) throws IOException {
+        try(BufferedReader reader = Files.newBufferedReader(file.toPath())) {
+            return MarkdownScanner.scan(reader);
+        }
+    }
+
+    /**
+     * @return The text of the first heading, or null if there are none.
+     */
+    @Nullable
+    public String getTitle() {
+        return headings.isEmpty() ? null : headings.get(0);
+    }
+
+}
@@ -0,0 +1,59 @@
+package eutros.omnicompendium.gui.entry;
+
+import javax.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The entries that hold a layout, or are being laid out, in the order they were last used.
+ * <p>
+ * Every layout, whether of the shown page, a page in the history or a prefetched one, is made through here,
+ * so only so many are ever kept. The least recently used entry releases its layout when there are too many,
+ * and is laid out again if it is shown again. Prefetches that are never opened are dropped the same way.
+ * <p>
+ * Must only be used on the client thread.
+ */
+public class LayoutCache {
+
+    public static final LayoutCache INSTANCE = new LayoutCache();
+
+    private static final int MAX_ENTRIES = 12;
+
+    @Nullable
+    private CompendiumEntry shown = null;
+
+    private final Map<CompendiumEntry, Boolean> entries = new LinkedHashMap<CompendiumEntry, Boolean>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CompendiumEntry, Boolean> eldest) {
+            if(size() <= MAX_ENTRIES) return false;
+
+            // the shown page is added back the next time it is drawn
+            if(eldest.getKey() != shown) {
+                eldest.getKey().releaseLayout();
+            }
+            return true;
+        }
+    };
+
+    /**
+     * Note that an entry's layout was used or asked for, making it the last to be released.
+     */
+    public void touch(CompendiumEntry entry) {
+        entries.put(entry, true);
+    }
+
+    public boolean isShown(CompendiumEntry entry) {
+        return entry == shown;
+    }
+
+    /**
+     * Set the entry that is being shown, whose layout is never released.
+     */
+    public void setShown(@Nullable CompendiumEntry entry) {
+        shown = entry;
+        if(entry != null) {
+            touch(entry);
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+package eutros.omnicompendium.gui.entry;
+
+import com.google.common.collect.ImmutableList;
+import eutros.omnicompendium.helper.FileHelper;
+import eutros.omnicompendium.loader.GitLoader;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static eutros.omnicompendium.Omnicompendium.LOGGER;
+
+/**
+ * Every link and image between the listed entries, resolved once whenever the list is replaced,
+ * so that following a link is a lookup, and links can be followed backwards.
+ * <p>
+ * Links that point to files that don't exist are reported to {@link #REPORT} each time the graph is built.
+ * The graph is immutable once built.
+ */
+public class LinkGraph {
+
+    public static final File REPORT = new File(GitLoader.DIR, "_broken_links.txt");
+    private static final Set<String> EXTERNAL_PREFIXES = new HashSet<>(Arrays.asList("#", "mailto:", "//"));
+
+    private static volatile LinkGraph current = new LinkGraph(Collections.emptyList(), 0);
+
+    private final Map<CompendiumEntry, Integer> ids = new HashMap<>();
+    private final CompendiumEntry[] entries;
+    private final List<Map<String, CompendiumEntry>> targets = new ArrayList<>(); // by id, link destination to entry
+    private final int[][] backlinks;
+    private final List<String> broken = new ArrayList<>();
+    public final int generation;
+
+    private LinkGraph(List<CompendiumEntry> entries, int generation) {
+        this.entries = entries.toArray(new CompendiumEntry[0]);
+        this.generation = generation;
+
+        Map<Path, Integer> byPath = new HashMap<>();
+        for(int i = 0; i < this.entries.length; i++) {
+            ids.put(this.entries[i], i);
+            if(this.entries[i].source != null) {
+                byPath.put(normalize(this.entries[i].source), i);
+            }
+        }
+
+        List<Set<Integer>> incoming = new ArrayList<>(this.entries.length);
+        for(int i = 0; i < this.entries.length; i++) {
+            incoming.add(new LinkedHashSet<>());
+        }
+        for(int i = 0; i < this.entries.length; i++) {
+            CompendiumEntry entry = this.entries[i];
+            Map<String, CompendiumEntry> resolved = new HashMap<>();
+            for(String link : entry.metadata.links) {
+                Optional<File> file = CompendiumEntries.resolveLink(link, entry.source);
+                if(file.isPresent()) {
+                    Integer target = byPath.get(normalize(file.get()));
+                    if(target != null) {
+                        resolved.put(link, this.entries[target]);
+                        if(target != i) {
+                            incoming.get(target).add(i);
+                        }
+                        continue;
+                    }
+                }
+                checkFile(entry, link);
+            }
+            for(String image : entry.metadata.images) {
+                checkFile(entry, image);
+            }
+            targets.add(resolved);
+        }
+
+        backlinks = new int[this.entries.length][];
+        for(int i = 0; i < this.entries.length; i++) {
+            backlinks[i] = incoming.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * Build the graph for the given entries, replacing the current one, and report any broken links.
+     * <p>
+     * Reads the file system for links that don't point to an entry, so should be called off the client thread.
+     */
+    public static synchronized void rebuild(List<CompendiumEntry> entries) {
+        LinkGraph graph = new LinkGraph(entries, current.generation + 1);
+        current = graph;
+        graph.report();
+    }
+
+    @Nonnull
+    public static LinkGraph get() {
+        return current;
+    }
+
+    private static Path normalize(File file) {
+        return file.getAbsoluteFile().toPath().normalize();
+    }
+
+    /**
+     * Note a link as broken if it is to a local file that doesn't exist.
+     */
+    private void checkFile(CompendiumEntry entry, String link) {
+        if(link.contains("://")) return;
+        for(String prefix : EXTERNAL_PREFIXES) {
+            if(link.startsWith(prefix)) return;
+        }
+
+        int fragment = link.indexOf('#');
+        String path = fragment == -1 ? link : link.substring(0, fragment);
+        if(!FileHelper.getRelative(entry.source, path).map(Path::toFile).filter(File::exists).isPresent()) {
+            String from = entry.source != null ? GitLoader.getRepoPath(entry.source) : entry.getTitle();
+            broken.add(from + ": " + link);
+        }
+    }
+
+    private void report() {
+        try {
+            if(broken.isEmpty()) {
+                Files.deleteIfExists(REPORT.toPath());
+                return;
+            }
+            LOGGER.warn(String.format("Found %s broken links, listed in %s.", broken.size(), REPORT.getName()));
+            Files.write(REPORT.toPath(), broken);
+        } catch(IOException e) {
+            LOGGER.warn("Failed to write the broken link report.", e);
+        }
+    }
+
+    /**
+     * @return The entry a link in the given entry was resolved to, or null if it wasn't resolved to one.
+     */
+    @Nullable
+    public CompendiumEntry resolve(CompendiumEntry from, String link) {
+        Integer id = ids.get(from);
+        return id == null ? null : targets.get(id).get(link);
+    }
+
+    /**
+     * @return The entries that link to the given one, in list order.
+     */
+    @Nonnull
+    public List<CompendiumEntry> getBacklinks(CompendiumEntry entry) {
+        Integer id = ids.get(entry);
+        if(id == null) {
+            return Collections.emptyList();
+        }
+        ImmutableList.Builder<CompendiumEntry> builder = ImmutableList.builder();
+        for(int source : backlinks[id]) {
+            builder.add(entries[source]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return Every broken link, as the path of the entry it is in and its destination.
+     */
+    @Nonnull
+    public List<String> getBrokenLinks() {
+        return Collections.unmodifiableList(broken);
+    }
+
+}
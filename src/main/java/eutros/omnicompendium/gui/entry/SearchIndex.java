@@ -0,0 +1,365 @@
+package eutros.omnicompendium.gui.entry;
+
+import net.minecraft.util.text.TextFormatting;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * A full text index over every listed entry, ranking matches with BM25.
+ * <p>
+ * Each term maps to its postings: the entries it appears in, in the order they were added, and the offset in the
+ * markdown of every occurrence. Headings, body text and code are indexed alike, leaving out link destinations.
+ * Removed entries are only forgotten by id, and their postings are dropped once they make up half of the index,
+ * so updating a few entries never touches the rest.
+ * <p>
+ * Safe to use from any thread. Every change is made on a single thread, in the order it was asked for,
+ * so that a rebuild from an older entry list can't undo adds and removes asked for after it.
+ */
+public class SearchIndex {
+
+    public static final SearchIndex INSTANCE = new SearchIndex();
+
+    private static final float K1 = 1.2F;
+    private static final float B = 0.75F;
+    // the last term of a query is matched as a prefix, but only against so many terms
+    private static final int MAX_PREFIX_TERMS = 64;
+    private static final int SNIPPET_BEFORE = 40;
+    private static final int SNIPPET_AFTER = 120;
+
+    private static final ExecutorService updater = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Omnicompendium Search Indexer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Pattern LINK_DESTINATION = Pattern.compile("]\\([^)]*\\)");
+    private static final Pattern SNIPPET_MARKUP = Pattern.compile("[#*_`~>|\\[\\]]+|]\\([^)]*\\)|\\s+");
+
+    private TreeMap<String, Postings> terms = new TreeMap<>();
+    private List<Document> documents = new ArrayList<>(); // by id, null once removed
+    private Map<CompendiumEntry, Integer> ids = new HashMap<>();
+    private long totalLength = 0;
+    private int livePostings = 0;
+    private int deadPostings = 0;
+
+    /**
+     * Index every entry again, replacing whatever was indexed before once done.
+     * Queries made meanwhile are answered from the old index.
+     */
+    public void rebuildLater(Collection<CompendiumEntry> entries) {
+        updater.execute(() -> rebuild(entries));
+    }
+
+    /**
+     * Forget some entries, and index others, such as new versions of them.
+     */
+    public void replaceLater(Collection<CompendiumEntry> removed, Collection<CompendiumEntry> added) {
+        updater.execute(() -> {
+            removed.forEach(this::remove);
+            added.forEach(this::add);
+        });
+    }
+
+    private void rebuild(Collection<CompendiumEntry> entries) {
+        List<Document> read = entries.parallelStream()
+                .map(Document::read)
+                .collect(Collectors.toList());
+
+        SearchIndex fresh = new SearchIndex();
+        for(Document document : read) {
+            fresh.insert(document);
+        }
+        synchronized(this) {
+            terms = fresh.terms;
+            documents = fresh.documents;
+            ids = fresh.ids;
+            totalLength = fresh.totalLength;
+            livePostings = fresh.livePostings;
+            deadPostings = fresh.deadPostings;
+        }
+    }
+
+    /**
+     * Index an entry, reading it on the calling thread, or index it again if it already is.
+     */
+    private void add(CompendiumEntry entry) {
+        Document document = Document.read(entry);
+        synchronized(this) {
+            remove(entry);
+            insert(document);
+        }
+    }
+
+    private synchronized void remove(CompendiumEntry entry) {
+        Integer id = ids.remove(entry);
+        if(id == null) return;
+
+        Document document = documents.set(id, null);
+        totalLength -= document.length;
+        for(String term : document.terms.keySet()) {
+            terms.get(term).live--;
+        }
+        livePostings -= document.terms.size();
+        deadPostings += document.terms.size();
+
+        if(deadPostings > livePostings) {
+            compact();
+        }
+    }
+
+    private synchronized void insert(Document document) {
+        int id = documents.size();
+        documents.add(document);
+        ids.put(document.entry, id);
+        totalLength += document.length;
+        document.terms.forEach((term, offsets) -> terms.computeIfAbsent(term, t -> new Postings()).add(id, offsets));
+        livePostings += document.terms.size();
+    }
+
+    private void compact() {
+        Iterator<Postings> it = terms.values().iterator();
+        while(it.hasNext()) {
+            Postings postings = it.next();
+            postings.compact(documents);
+            if(postings.count == 0) {
+                it.remove();
+            }
+        }
+        deadPostings = 0;
+    }
+
+    /**
+     * Find the entries best matching a query, best first.
+     * <p>
+     * Every term of the query is optional, but entries matching more of them, or matching rarer ones, rank higher.
+     */
+    @Nonnull
+    public synchronized List<Result> search(String query, int limit) {
+        List<String> queryTerms = new ArrayList<>();
+        forEachTerm(query, 0, query.length(), (term, start, end) -> queryTerms.add(term));
+        if(queryTerms.isEmpty() || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<String, Postings> matched = new LinkedHashMap<>();
+        for(int i = 0; i < queryTerms.size(); i++) {
+            String term = queryTerms.get(i);
+            boolean last = i == queryTerms.size() - 1 && !Character.isWhitespace(query.charAt(query.length() - 1));
+            if(last) {
+                // still being typed
+                for(Map.Entry<String, Postings> entry : terms.subMap(term, term + Character.MAX_VALUE).entrySet()) {
+                    if(matched.size() >= MAX_PREFIX_TERMS + i) break;
+                    matched.put(entry.getKey(), entry.getValue());
+                }
+            } else {
+                Postings postings = terms.get(term);
+                if(postings != null) {
+                    matched.put(term, postings);
+                }
+            }
+        }
+
+        int count = ids.size();
+        float averageLength = Math.max(1, (float) totalLength / count);
+        float[] scores = new float[documents.size()];
+        int[] offsets = new int[documents.size()];
+        float[] best = new float[documents.size()];
+        for(Postings postings : matched.values()) {
+            if(postings.live == 0) continue;
+
+            float idf = (float) Math.log(1 + (count - postings.live + 0.5) / (postings.live + 0.5));
+            for(int i = 0; i < postings.count; i++) {
+                int doc = postings.docs[i];
+                Document document = documents.get(doc);
+                if(document == null) continue;
+
+                int frequency = postings.frequency(i);
+                float score = idf * frequency * (K1 + 1) / (frequency + K1 * (1 - B + B * document.length / averageLength));
+                scores[doc] += score;
+                if(score > best[doc]) {
+                    best[doc] = score;
+                    offsets[doc] = postings.offsets[postings.starts[i]];
+                }
+            }
+        }
+
+        List<Result> results = new ArrayList<>();
+        for(int doc = 0; doc < scores.length; doc++) {
+            if(scores[doc] > 0) {
+                results.add(new Result(documents.get(doc).entry, scores[doc], offsets[doc], matched.keySet()));
+            }
+        }
+        results.sort(Comparator.comparingDouble((Result result) -> result.score).reversed());
+        return results.size() > limit ? new ArrayList<>(results.subList(0, limit)) : results;
+    }
+
+    /**
+     * Split text[from, to) into lower case terms: runs of letters and digits.
+     */
+    public static void forEachTerm(CharSequence text, int from, int to, TermConsumer consumer) {
+        int i = from;
+        while(i < to) {
+            if(!Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while(i < to && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            consumer.accept(text.subSequence(start, i).toString().toLowerCase(Locale.ROOT), start, i);
+        }
+    }
+
+    public interface TermConsumer {
+
+        void accept(String term, int start, int end);
+
+    }
+
+    public static class Result {
+
+        public final CompendiumEntry entry;
+        public final float score;
+        // the first occurrence of the term that contributed most to the score
+        private final int offset;
+        public final Set<String> terms;
+        @Nullable
+        private String snippet = null;
+
+        private Result(CompendiumEntry entry, float score, int offset, Set<String> terms) {
+            this.entry = entry;
+            this.score = score;
+            this.offset = offset;
+            this.terms = terms;
+        }
+
+        /**
+         * Get a line of the entry around the best match, without markup, and with the matched terms highlighted.
+         * The entry is read the first time this is called.
+         */
+        @Nonnull
+        public String getSnippet() {
+            if(snippet == null) {
+                String markdown = entry.readMarkdown();
+                int from = Math.max(0, Math.min(offset, markdown.length()) - SNIPPET_BEFORE);
+                int to = Math.min(markdown.length(), offset + SNIPPET_AFTER);
+                // don't start or end mid-word
+                while(from > 0 && from < to && Character.isLetterOrDigit(markdown.charAt(from - 1))) from++;
+                while(to < markdown.length() && to > from && Character.isLetterOrDigit(markdown.charAt(to))) to--;
+                String window = SNIPPET_MARKUP.matcher(markdown.substring(from, to)).replaceAll(" ").trim();
+
+                StringBuilder sb = new StringBuilder();
+                int[] last = {0};
+                forEachTerm(window, 0, window.length(), (term, start, end) -> {
+                    if(terms.contains(term)) {
+                        sb.append(window, last[0], start)
+                                .append(TextFormatting.GOLD)
+                                .append(window, start, end)
+                                .append(TextFormatting.DARK_GRAY);
+                        last[0] = end;
+                    }
+                });
+                sb.append(window, last[0], window.length());
+                snippet = sb.toString();
+            }
+            return snippet;
+        }
+
+    }
+
+    private static class Document {
+
+        private final CompendiumEntry entry;
+        private final Map<String, int[]> terms;
+        private final int length;
+
+        private Document(CompendiumEntry entry, Map<String, int[]> terms, int length) {
+            this.entry = entry;
+            this.terms = terms;
+            this.length = length;
+        }
+
+        private static Document read(CompendiumEntry entry) {
+            String markdown = entry.readMarkdown();
+            Map<String, List<Integer>> found = new HashMap<>();
+            int[] length = {0};
+            TermConsumer consumer = (term, start, end) -> {
+                found.computeIfAbsent(term, t -> new ArrayList<>()).add(start);
+                length[0]++;
+            };
+
+            int last = 0;
+            Matcher link = LINK_DESTINATION.matcher(markdown);
+            while(link.find()) {
+                forEachTerm(markdown, last, link.start(), consumer);
+                last = link.end();
+            }
+            forEachTerm(markdown, last, markdown.length(), consumer);
+
+            Map<String, int[]> terms = new HashMap<>(found.size() * 4 / 3 + 1);
+            found.forEach((term, offsets) -> terms.put(term, offsets.stream().mapToInt(Integer::intValue).toArray()));
+            return new Document(entry, terms, length[0]);
+        }
+
+    }
+
+    private static class Postings {
+
+        private int[] docs = new int[2];
+        private int[] starts = new int[2]; // where the offsets of each document start
+        private int[] offsets = new int[2];
+        private int count = 0;
+        private int offsetCount = 0;
+        private int live = 0;
+
+        private void add(int doc, int[] docOffsets) {
+            if(count == docs.length) {
+                docs = Arrays.copyOf(docs, count * 2);
+                starts = Arrays.copyOf(starts, count * 2);
+            }
+            if(offsetCount + docOffsets.length > offsets.length) {
+                offsets = Arrays.copyOf(offsets, Math.max(offsets.length * 2, offsetCount + docOffsets.length));
+            }
+            docs[count] = doc;
+            starts[count] = offsetCount;
+            count++;
+            System.arraycopy(docOffsets, 0, offsets, offsetCount, docOffsets.length);
+            offsetCount += docOffsets.length;
+            live++;
+        }
+
+        private int frequency(int i) {
+            return (i + 1 < count ? starts[i + 1] : offsetCount) - starts[i];
+        }
+
+        /**
+         * Drop the postings of removed documents, keeping the rest in order.
+         */
+        private void compact(List<Document> documents) {
+            int kept = 0;
+            int keptOffsets = 0;
+            for(int i = 0; i < count; i++) {
+                if(documents.get(docs[i]) == null) continue;
+
+                int frequency = frequency(i);
+                System.arraycopy(offsets, starts[i], offsets, keptOffsets, frequency);
+                docs[kept] = docs[i];
+                starts[kept] = keptOffsets;
+                kept++;
+                keptOffsets += frequency;
+            }
+            count = kept;
+            offsetCount = keptOffsets;
+        }
+
+    }
+
+}
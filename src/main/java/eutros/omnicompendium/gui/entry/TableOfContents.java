@@ -0,0 +1,142 @@
+package eutros.omnicompendium.gui.entry;
+
+import eutros.omnicompendium.gui.GuiCompendium;
+import eutros.omnicompendium.gui.markdown.PageLayout;
+import eutros.omnicompendium.gui.render.DrawList;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.FontRenderer;
+import net.minecraft.client.resources.I18n;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.text.TextFormatting;
+import org.lwjgl.input.Mouse;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The headings of the shown entry, listed over the right of the page, which can be clicked to jump to them.
+ * <p>
+ * Built from the anchors of the entry's layout, so it never visits the document itself.
+ * Stays open or closed across pages until it is toggled again.
+ */
+public class TableOfContents {
+
+    public static final int MAX_LEVEL = 3;
+    private static final int INDENT = 6;
+    private static final int PADDING = 3;
+    private static final int BACKGROUND_COLOR = 0xF0F4ECDC;
+    private static final int BORDER_COLOR = 0xFFAAAAAA;
+    private static final int CURRENT_COLOR = 0x20000000;
+    private static final int TEXT_COLOR = 0xFF555555;
+
+    private static boolean open = false;
+
+    private final FontRenderer fr = Minecraft.getMinecraft().fontRenderer;
+    private final DrawList drawList = new DrawList();
+    private int scroll = 0; // the first visible row
+
+    @Nullable
+    private PageLayout rowsLayout = null;
+    private List<PageLayout.Anchor> rows = new ArrayList<>();
+
+    public static boolean isOpen() {
+        return open;
+    }
+
+    public static void toggle() {
+        open = !open;
+    }
+
+    private static int getX() {
+        return GuiCompendium.ENTRY_WIDTH * 2 / 3;
+    }
+
+    private int getRowHeight() {
+        return fr.FONT_HEIGHT + 1;
+    }
+
+    private int getVisibleRows() {
+        return Math.max(1, (GuiCompendium.ENTRY_HEIGHT - PADDING * 2) / getRowHeight() - 1);
+    }
+
+    private List<PageLayout.Anchor> getRows(CompendiumEntry entry) {
+        PageLayout layout = entry.getLayout();
+        if(layout != rowsLayout) {
+            rows = new ArrayList<>();
+            for(PageLayout.Anchor anchor : layout.anchors) {
+                if(anchor.level <= MAX_LEVEL) {
+                    rows.add(anchor);
+                }
+            }
+            rowsLayout = layout;
+            scroll = MathHelper.clamp(scroll, 0, Math.max(0, rows.size() - getVisibleRows()));
+        }
+        return rows;
+    }
+
+    /**
+     * @return Whether the mouse, relative to the entry, is over the table, if it is shown at all.
+     */
+    public boolean contains(CompendiumEntry entry, int mouseX, int mouseY) {
+        return open
+                && !getRows(entry).isEmpty()
+                && mouseX >= getX() && mouseX < GuiCompendium.ENTRY_WIDTH
+                && mouseY >= 0 && mouseY < GuiCompendium.ENTRY_HEIGHT;
+    }
+
+    /**
+     * Draw the table over the entry, relative to it. Nothing is drawn if the table is closed, or the entry has no headings.
+     */
+    public void draw(CompendiumEntry entry) {
+        List<PageLayout.Anchor> rows = getRows(entry);
+        if(!open || rows.isEmpty()) return;
+
+        int x = getX();
+        int width = GuiCompendium.ENTRY_WIDTH - x;
+        drawList.begin();
+        drawList.addRect(x, 0, GuiCompendium.ENTRY_WIDTH, GuiCompendium.ENTRY_HEIGHT, BACKGROUND_COLOR);
+        drawList.addRect(x, 0, x + 1, GuiCompendium.ENTRY_HEIGHT, BORDER_COLOR);
+
+        int y = PADDING;
+        drawList.addText(fr.trimStringToWidth(TextFormatting.BOLD + I18n.format("omnicompendium.toc.title"), width - PADDING * 2),
+                x + PADDING, y, 1, 0xFF000000);
+        y += getRowHeight();
+
+        PageLayout.Anchor current = entry.getLayout().getAnchorAbove(entry.scroll);
+        int last = Math.min(rows.size(), scroll + getVisibleRows());
+        for(int i = scroll; i < last; i++) {
+            PageLayout.Anchor anchor = rows.get(i);
+            if(anchor == current) {
+                drawList.addRect(x + 1, y - 1, GuiCompendium.ENTRY_WIDTH, y + getRowHeight() - 1, CURRENT_COLOR);
+            }
+            int indent = PADDING + (anchor.level - 1) * INDENT;
+            drawList.addText(fr.trimStringToWidth(anchor.text, width - indent - PADDING), x + indent, y, 1, TEXT_COLOR);
+            y += getRowHeight();
+        }
+        drawList.draw();
+    }
+
+    /**
+     * Jump to the heading that was clicked, relative to the entry.
+     *
+     * @return Whether the click was on the table.
+     */
+    public boolean mouseClicked(CompendiumEntry entry, int mouseX, int mouseY, int mouseButton) {
+        if(!contains(entry, mouseX, mouseY)) return false;
+
+        int row = scroll + (mouseY - PADDING) / getRowHeight() - 1;
+        if(mouseButton == 0 && row >= scroll && row < Math.min(rows.size(), scroll + getVisibleRows())) {
+            entry.jumpTo(rows.get(row).slug);
+        }
+        return true;
+    }
+
+    public void handleMouseInput() {
+        int wheel = Mouse.getDWheel();
+        if(wheel != 0) {
+            scroll = MathHelper.clamp(scroll - Integer.signum(wheel), 0, Math.max(0, rows.size() - getVisibleRows()));
+        }
+    }
+
+}
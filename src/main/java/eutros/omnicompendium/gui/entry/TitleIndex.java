@@ -0,0 +1,191 @@
+package eutros.omnicompendium.gui.entry;
+
+import org.apache.commons.io.FilenameUtils;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+/**
+ * A trigram index over the titles and file names of the listed entries, for finding pages by name as it is typed.
+ * <p>
+ * Every word is padded with two spaces before and one after, then split into trigrams. Queries are split the same
+ * way, except that the last word is left open, since it is still being typed. An entry matches if it has all of the
+ * query's trigrams, or, for longer queries, all but a quarter of them, so that a typo is forgiven once there is
+ * enough of the query to tell what was meant.
+ * <p>
+ * The index is rebuilt whenever the entry list is replaced, and is immutable once built.
+ */
+public class TitleIndex {
+
+    // queries with fewer trigrams than this have to match all of them
+    private static final int MIN_TRIGRAMS_TO_MISS = 3;
+
+    private static volatile TitleIndex current = new TitleIndex(Collections.emptyList());
+
+    private final CompendiumEntry[] entries;
+    private final String[] keys;
+    private final Map<String, int[]> postings; // ascending entry indices
+
+    private TitleIndex(List<CompendiumEntry> entries) {
+        this.entries = entries.toArray(new CompendiumEntry[0]);
+        keys = new String[this.entries.length];
+
+        Map<String, List<Integer>> found = new HashMap<>();
+        for(int i = 0; i < this.entries.length; i++) {
+            CompendiumEntry entry = this.entries[i];
+            String key = entry.getTitle();
+            if(entry.source != null) {
+                key += " " + FilenameUtils.getBaseName(entry.source.getName());
+            }
+            keys[i] = key.toLowerCase(Locale.ROOT);
+
+            for(String trigram : new HashSet<>(getTrigrams(keys[i], false))) {
+                found.computeIfAbsent(trigram, t -> new ArrayList<>()).add(i);
+            }
+        }
+
+        postings = new HashMap<>(found.size() * 4 / 3 + 1);
+        found.forEach((trigram, indices) -> postings.put(trigram, indices.stream().mapToInt(Integer::intValue).toArray()));
+    }
+
+    /**
+     * Index the given entries, replacing the index searches are started on.
+     */
+    public static void rebuild(List<CompendiumEntry> entries) {
+        current = new TitleIndex(entries);
+    }
+
+    /**
+     * @return How many of a query's trigrams an entry may not have and still match it.
+     */
+    private static int getAllowedMisses(int trigrams) {
+        return trigrams < MIN_TRIGRAMS_TO_MISS ? 0 : trigrams / 4;
+    }
+
+    /**
+     * Split text into the trigrams of its words, in order.
+     *
+     * @param open Whether the last word may not be finished, and so shouldn't be padded at the end.
+     */
+    private static List<String> getTrigrams(String text, boolean open) {
+        List<String> trigrams = new ArrayList<>();
+        int i = 0;
+        int length = text.length();
+        while(i < length) {
+            if(!Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while(i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            String padded = "  " + text.substring(start, i).toLowerCase(Locale.ROOT) + (open && i == length ? "" : " ");
+            for(int j = 0; j + 3 <= padded.length(); j++) {
+                trigrams.add(padded.substring(j, j + 3));
+            }
+        }
+        return trigrams;
+    }
+
+    /**
+     * A query being typed, which keeps the entries still matching it.
+     * <p>
+     * Typing more of a query only ever adds trigrams to it, so each keystroke only narrows the previous candidates
+     * by the new trigrams, instead of looking at every entry again. Anything else, such as deleting, starts over,
+     * as does the query getting long enough to allow another miss, since entries dropped before may match again.
+     */
+    public static class Search {
+
+        private TitleIndex index = current;
+        private List<String> trigrams = Collections.emptyList();
+        private int[] candidates = new int[0]; // ascending
+        private int[] misses = new int[0];
+        private int count = 0;
+        private int allowedMisses = 0;
+
+        /**
+         * Update the query, and get the best matching entries for it, best first.
+         */
+        @Nonnull
+        public List<CompendiumEntry> update(String query, int limit) {
+            List<String> next = getTrigrams(query, true);
+            if(next.isEmpty()) {
+                trigrams = next;
+                return Collections.emptyList();
+            }
+
+            int allowed = getAllowedMisses(next.size());
+            if(index != current || trigrams.isEmpty() || !isPrefix(trigrams, next) || allowed != allowedMisses) {
+                restart();
+                allowedMisses = allowed;
+            }
+            for(String trigram : next.subList(trigrams.size(), next.size())) {
+                narrow(trigram);
+            }
+            trigrams = next;
+            return rank(query.trim().toLowerCase(Locale.ROOT), limit);
+        }
+
+        private static boolean isPrefix(List<String> prefix, List<String> list) {
+            return prefix.size() <= list.size() && prefix.equals(list.subList(0, prefix.size()));
+        }
+
+        private void restart() {
+            index = current;
+            trigrams = Collections.emptyList();
+            count = index.entries.length;
+            candidates = new int[count];
+            misses = new int[count];
+            for(int i = 0; i < count; i++) {
+                candidates[i] = i;
+            }
+        }
+
+        private void narrow(String trigram) {
+            int[] list = index.postings.getOrDefault(trigram, new int[0]);
+            int kept = 0;
+            int j = 0;
+            for(int i = 0; i < count; i++) {
+                int candidate = candidates[i];
+                while(j < list.length && list[j] < candidate) {
+                    j++;
+                }
+                int missed = misses[i] + (j < list.length && list[j] == candidate ? 0 : 1);
+                if(missed <= allowedMisses) {
+                    candidates[kept] = candidate;
+                    misses[kept] = missed;
+                    kept++;
+                }
+            }
+            count = kept;
+        }
+
+        /**
+         * Order the candidates by how many trigrams they miss, then by how early the query appears in them,
+         * then by length. Only as many groups of misses as are needed to fill the limit are sorted.
+         */
+        private List<CompendiumEntry> rank(String query, int limit) {
+            List<CompendiumEntry> ranked = new ArrayList<>();
+            for(int missed = 0; missed <= allowedMisses && ranked.size() < limit; missed++) {
+                List<long[]> group = new ArrayList<>();
+                for(int i = 0; i < count; i++) {
+                    if(misses[i] != missed) continue;
+
+                    int candidate = candidates[i];
+                    String key = index.keys[candidate];
+                    int position = key.indexOf(query);
+                    group.add(new long[] {position == -1 ? Integer.MAX_VALUE : position, key.length(), candidate});
+                }
+                group.sort(Comparator.<long[]>comparingLong(rank -> rank[0]).thenComparingLong(rank -> rank[1]));
+                for(long[] rank : group) {
+                    if(ranked.size() >= limit) break;
+                    ranked.add(index.entries[(int) rank[2]]);
+                }
+            }
+            return ranked;
+        }
+
+    }
+
+}
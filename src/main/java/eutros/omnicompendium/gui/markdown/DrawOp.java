@@ -0,0 +1,133 @@
+package eutros.omnicompendium.gui.markdown;
+
+import eutros.omnicompendium.gui.render.DrawList;
+import eutros.omnicompendium.loader.ImageLoader;
+import net.minecraft.client.Minecraft;
+
+/**
+ * A single positioned draw call produced by laying out a page.
+ * <p>
+ * Coordinates are final page coordinates, with any heading scale already applied.
+ */
+public abstract class DrawOp {
+
+    public final int minY;
+    public final int maxY;
+
+    protected DrawOp(int minY, int maxY) {
+        this.minY = minY;
+        this.maxY = maxY;
+    }
+
+    public abstract void addTo(DrawList list);
+
+    /**
+     * The range [start, end) of a string, drawn after the given formatting codes.
+     * The string is shared by every line it was broken into.
+     */
+    public static class Text extends DrawOp {
+
+        public final String format;
+        public final String text;
+        public final int start;
+        public final int end;
+        public final float x;
+        public final float y;
+        public final float scale;
+        public final int color;
+
+        public Text(String text, float x, float y, float scale, int color) {
+            this("", text, 0, text.length(), x, y, scale, color);
+        }
+
+        public Text(String format, String text, int start, int end, float x, float y, float scale, int color) {
+            super((int) y, (int) Math.ceil(y + Minecraft.getMinecraft().fontRenderer.FONT_HEIGHT * scale));
+            this.format = format;
+            this.text = text;
+            this.start = start;
+            this.end = end;
+            this.x = x;
+            this.y = y;
+            this.scale = scale;
+            this.color = color;
+        }
+
+        @Override
+        public void addTo(DrawList list) {
+            list.addText(format, text, start, end, x, y, scale, color);
+        }
+
+    }
+
+    /**
+     * The range [start, end) of a string, drawn in monospace.
+     */
+    public static class Mono extends DrawOp {
+
+        public final String text;
+        public final int start;
+        public final int end;
+        public final float x;
+        public final float y;
+        public final float scale;
+        public final int color;
+
+        public Mono(String text, int start, int end, float x, float y, float scale, int color) {
+            super((int) y, (int) Math.ceil(y + Minecraft.getMinecraft().fontRenderer.FONT_HEIGHT * scale));
+            this.text = text;
+            this.start = start;
+            this.end = end;
+            this.x = x;
+            this.y = y;
+            this.scale = scale;
+            this.color = color;
+        }
+
+        @Override
+        public void addTo(DrawList list) {
+            MonoRenderer.addString(list, text, start, end, x, y, scale, color);
+        }
+
+    }
+
+    public static class Rect extends DrawOp {
+
+        public final int minX;
+        public final int maxX;
+        public final int color;
+
+        public Rect(int minX, int minY, int maxX, int maxY, int color) {
+            super(Math.min(minY, maxY), Math.max(minY, maxY));
+            this.minX = Math.min(minX, maxX);
+            this.maxX = Math.max(minX, maxX);
+            this.color = color;
+        }
+
+        @Override
+        public void addTo(DrawList list) {
+            list.addRect(minX, minY, maxX, maxY, color);
+        }
+
+    }
+
+    public static class Image extends DrawOp {
+
+        public final ImageLoader.Image image;
+        public final int x;
+        public final int width;
+
+        public Image(ImageLoader.Image image, int x, int y, int width, int height) {
+            super(y, y + height);
+            this.image = image;
+            this.x = x;
+            this.width = width;
+        }
+
+        @Override
+        public void addTo(DrawList list) {
+            image.addTo(list, x, minY, width, maxY - minY);
+        }
+
+    }
+
+}
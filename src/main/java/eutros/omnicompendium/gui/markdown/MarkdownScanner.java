@@ -0,0 +1,101 @@
+package eutros.omnicompendium.gui.markdown;
+
+import eutros.omnicompendium.gui.entry.EntryMetadata;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds what the entry list needs to know about a document (headings, links, images and length) by scanning the raw
+ * markdown line by line, without parsing it.
+ * <p>
+ * Fenced code blocks are skipped, and emphasis, code spans and links are stripped from headings.
+ */
+public class MarkdownScanner {
+
+    private static final Pattern ATX_HEADING = Pattern.compile("^ {0,3}#{1,6}(?:[ \\t]+(.*?))?(?:[ \\t]+#+)?[ \\t]*$");
+    private static final Pattern SETEXT_UNDERLINE = Pattern.compile("^ {0,3}(?:=+|-+)[ \\t]*$");
+    private static final Pattern FENCE = Pattern.compile("^ {0,3}(`{3,}|~{3,})");
+    // emphasis only opens or closes at the edge of a word, so underscores inside names are kept
+    private static final Pattern INLINE_MARKUP = Pattern.compile("!?\\[([^]]*)]\\([^)]*\\)|`+|(?<!\\w)[*_~]+|[*_~]+(?!\\w)");
+    private static final Pattern LINK = Pattern.compile("(!?)\\[[^]]*]\\(\\s*<?([^)\\s>]+)>?[^)]*\\)");
+    private static final Pattern WORD = Pattern.compile("\\S+");
+
+    private final List<String> headings = new ArrayList<>();
+    private final List<String> links = new ArrayList<>();
+    private final List<String> images = new ArrayList<>();
+    private int wordCount = 0;
+
+    private MarkdownScanner() {
+    }
+
+    public static EntryMetadata scan(BufferedReader reader) throws IOException {
+        MarkdownScanner scanner = new MarkdownScanner();
+        scanner.run(reader);
+        return new EntryMetadata(scanner.headings, scanner.links, scanner.images, scanner.wordCount);
+    }
+
+    private void run(BufferedReader reader) throws IOException {
+        String fence = null;
+        String paragraph = null; // the last line of the paragraph being read, which may be underlined
+        String line;
+        while((line = reader.readLine()) != null) {
+            if(fence != null) {
+                if(line.trim().startsWith(fence)) {
+                    fence = null;
+                }
+                continue;
+            }
+
+            Matcher matcher = FENCE.matcher(line);
+            if(matcher.find()) {
+                fence = matcher.group(1);
+                paragraph = null;
+                continue;
+            }
+
+            matcher = ATX_HEADING.matcher(line);
+            if(matcher.matches()) {
+                if(matcher.group(1) != null) {
+                    addText(matcher.group(1));
+                    addHeading(matcher.group(1));
+                }
+                paragraph = null;
+                continue;
+            }
+
+            if(paragraph != null && SETEXT_UNDERLINE.matcher(line).matches()) {
+                // the underlined line was already counted as text
+                addHeading(paragraph);
+                paragraph = null;
+                continue;
+            }
+
+            paragraph = line.trim().isEmpty() ? null : line;
+            addText(line);
+        }
+    }
+
+    private void addHeading(String heading) {
+        String title = INLINE_MARKUP.matcher(heading).replaceAll("$1").trim();
+        if(!title.isEmpty()) {
+            headings.add(title);
+        }
+    }
+
+    private void addText(String line) {
+        Matcher link = LINK.matcher(line);
+        while(link.find()) {
+            (link.group(1).isEmpty() ? links : images).add(link.group(2));
+        }
+        Matcher word = WORD.matcher(INLINE_MARKUP.matcher(line).replaceAll("$1"));
+        while(word.find()) {
+            wordCount++;
+        }
+    }
+
+}
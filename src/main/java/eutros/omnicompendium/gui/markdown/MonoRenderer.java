@@ -1,42 +1,86 @@
 package eutros.omnicompendium.gui.markdown;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import eutros.omnicompendium.gui.render.DrawList;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.FontRenderer;
 
 import javax.annotation.Nonnull;
 import java.util.Arrays;
-import java.util.List;
 
 public class MonoRenderer {
 
     public static final FontRenderer fr = Minecraft.getMinecraft().fontRenderer;
     private static final int CHAR_SIZE = 7;
 
+    private static final LoadingCache<LinesKey, Lines> LINE_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(256)
+            .build(CacheLoader.from(key -> wrap(key.text, 0, key.wrapWidth)));
+
     public static int getStringWidth(String str) {
-        return str.toCharArray().length * CHAR_SIZE;
+        return getStringWidth(str.length());
+    }
+
+    public static int getStringWidth(int length) {
+        return length * CHAR_SIZE;
     }
 
+    /**
+     * Get the lines that the whole of a code block wraps to, remembering recent results.
+     */
     @Nonnull
-    public static List<String> listFormattedStringToWidth(String text, int wrapWidth) {
-        return Arrays.asList(wrapFormattedStringToWidth(text, wrapWidth).split("\n"));
+    public static Lines getLines(String text, int wrapWidth) {
+        return LINE_CACHE.getUnchecked(new LinesKey(text, wrapWidth));
     }
 
     /**
-     * Copied from {@link FontRenderer#wrapFormattedStringToWidth(String, int)}.
+     * Wrap text[from, length) as {@link FontRenderer#listFormattedStringToWidth(String, int)} would,
+     * without copying any of it.
+     * <p>
+     * Every character is looked at no more than twice, so this is linear in the length of the text.
      */
-    @SuppressWarnings("JavadocReference")
-    private static String wrapFormattedStringToWidth(String str, int wrapWidth) {
-        int i = sizeStringToWidth(str, wrapWidth);
-
-        if(str.length() <= i) {
-            return str;
-        } else {
-            String s = str.substring(0, i);
-            char c0 = str.charAt(i);
-            boolean flag = c0 == ' ' || c0 == '\n';
-            String s1 = str.substring(i + (flag ? 1 : 0));
-            return s + "\n" + wrapFormattedStringToWidth(s1, wrapWidth);
+    @Nonnull
+    public static Lines wrap(String text, int from, int wrapWidth) {
+        int length = text.length();
+        int perLine = Math.max(1, wrapWidth / CHAR_SIZE);
+        Lines lines = new Lines();
+
+        int start = from;
+        while(true) {
+            int limit = Math.min(start + perLine, length);
+            int end = -1;
+            int lastSpace = -1;
+            for(int i = start; i <= limit && i < length; i++) {
+                char c = text.charAt(i);
+                if(c == '\n') {
+                    end = i;
+                    break;
+                }
+                if(c == ' ') {
+                    lastSpace = i;
+                }
+            }
+
+            if(end == -1) {
+                if(limit >= length) {
+                    lines.add(start, length);
+                    break;
+                }
+                end = lastSpace != -1 ? lastSpace : limit;
+            }
+
+            lines.add(start, end);
+            char c0 = text.charAt(end);
+            start = end + (c0 == ' ' || c0 == '\n' ? 1 : 0);
         }
+
+        // splitting on newlines drops trailing empty lines
+        while(lines.count > 1 && lines.starts[lines.count - 1] == lines.ends[lines.count - 1]) {
+            lines.count--;
+        }
+        return lines;
     }
 
     /**
@@ -77,11 +121,74 @@ public class MonoRenderer {
         return k != i && l != -1 && l < k ? l : k;
     }
 
-    public static void drawString(String str, int x, int y, int color) {
-        for(char c : str.toCharArray()) {
-            fr.drawString(String.valueOf(c), x + (CHAR_SIZE - fr.getCharWidth(c)) / 2F, y, color, false);
-            x += CHAR_SIZE;
+    public static void addString(DrawList list, String str, float x, float y, float scale, int color) {
+        addString(list, str, 0, str.length(), x, y, scale, color);
+    }
+
+    public static void addString(DrawList list, String str, int start, int end, float x, float y, float scale, int color) {
+        for(int i = start; i < end; i++) {
+            char c = str.charAt(i);
+            list.addChar(c, x + (CHAR_SIZE - fr.getCharWidth(c)) / 2F * scale, y, scale, color);
+            x += CHAR_SIZE * scale;
+        }
+    }
+
+    /**
+     * Lines of wrapped text, as [start, end) ranges of the string they were wrapped from.
+     */
+    public static class Lines {
+
+        private int[] starts = new int[8];
+        private int[] ends = new int[8];
+        private int count = 0;
+
+        private void add(int start, int end) {
+            if(count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+        }
+
+        public int count() {
+            return count;
+        }
+
+        public int start(int line) {
+            return starts[line];
+        }
+
+        public int end(int line) {
+            return ends[line];
+        }
+
+    }
+
+    private static class LinesKey {
+
+        private final String text;
+        private final int wrapWidth;
+
+        private LinesKey(String text, int wrapWidth) {
+            this.text = text;
+            this.wrapWidth = wrapWidth;
         }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) return true;
+            if(!(o instanceof LinesKey)) return false;
+            LinesKey other = (LinesKey) o;
+            return wrapWidth == other.wrapWidth && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return text.hashCode() * 31 + wrapWidth;
+        }
+
     }
 
 }
@@ -0,0 +1,263 @@
+package eutros.omnicompendium.gui.markdown;
+
+import com.google.common.collect.ImmutableList;
+import eutros.omnicompendium.gui.ClickableComponent;
+import eutros.omnicompendium.gui.entry.SearchIndex;
+import eutros.omnicompendium.gui.render.DrawList;
+import eutros.omnicompendium.helper.IntervalIndex;
+import eutros.omnicompendium.helper.TextHelper;
+import net.minecraft.util.text.TextFormatting;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The laid out form of a page, replayed every frame instead of visiting the markdown again.
+ * <p>
+ * Both the draw ops and the areas of clickable components are indexed by y, so that drawing and hit testing
+ * only look at what is near the visible range or the mouse.
+ */
+public class PageLayout {
+
+    private static final DrawList DRAW_LIST = new DrawList();
+
+    public final List<DrawOp> ops;
+    public final IntervalIndex<DrawOp> opIndex;
+    public final List<ClickableComponent> clickableComponents;
+    private final IntervalIndex<Hitbox> clickableIndex;
+    public final List<Anchor> anchors;
+    private final Map<String, Anchor> anchorIndex; // by slug
+    public final int width;
+    public final int height;
+    public final int imageGeneration;
+    public final int graphGeneration;
+    public final int fontGeneration;
+
+    public PageLayout(List<DrawOp> ops, List<ClickableComponent> clickableComponents, List<Anchor> anchors, int width, int height, int imageGeneration, int graphGeneration, int fontGeneration) {
+        this.ops = ImmutableList.copyOf(ops);
+        this.opIndex = new IntervalIndex<>(this.ops, op -> op.minY, op -> op.maxY);
+        this.clickableComponents = ImmutableList.copyOf(clickableComponents);
+        List<Hitbox> hitboxes = new ArrayList<>();
+        for(int i = 0; i < this.clickableComponents.size(); i++) {
+            ClickableComponent component = this.clickableComponents.get(i);
+            for(int[] bound : component.getBounds()) {
+                hitboxes.add(new Hitbox(component, i, bound));
+            }
+        }
+        this.clickableIndex = new IntervalIndex<>(hitboxes, box -> box.minY, box -> box.maxY);
+        this.anchors = ImmutableList.copyOf(anchors);
+        Map<String, Anchor> anchorIndex = new HashMap<>();
+        for(Anchor anchor : this.anchors) {
+            anchorIndex.putIfAbsent(anchor.slug, anchor);
+        }
+        this.anchorIndex = anchorIndex;
+        this.width = width;
+        this.height = height;
+        this.imageGeneration = imageGeneration;
+        this.graphGeneration = graphGeneration;
+        this.fontGeneration = fontGeneration;
+    }
+
+    public boolean isValid(int width, int imageGeneration, int graphGeneration, int fontGeneration) {
+        return this.width == width
+                && this.imageGeneration == imageGeneration
+                && this.graphGeneration == graphGeneration
+                && this.fontGeneration == fontGeneration;
+    }
+
+    /**
+     * Draw only the ops that intersect the visible range [minY, maxY] of the page.
+     *
+     * @return Whether everything could be drawn, false if some images are still loading.
+     */
+    public boolean draw(int minY, int maxY) {
+        DRAW_LIST.begin();
+        opIndex.forEachIn(minY, maxY, op -> op.addTo(DRAW_LIST));
+        DRAW_LIST.draw();
+        return DRAW_LIST.isComplete();
+    }
+
+    /**
+     * @return The components with an area containing the point, in the order they were laid out.
+     */
+    public List<ClickableComponent> getComponentsAt(int x, int y) {
+        List<Hitbox> hits = new ArrayList<>();
+        clickableIndex.forEachIn(y, y, box -> {
+            if(x >= box.minX && x <= box.maxX) {
+                hits.add(box);
+            }
+        });
+        return toComponents(hits);
+    }
+
+    /**
+     * @return The components with an area intersecting the range [minY, maxY] of the page, in the order they were laid out.
+     */
+    public List<ClickableComponent> getComponentsIn(int minY, int maxY) {
+        return toComponents(clickableIndex.query(minY, maxY));
+    }
+
+    /**
+     * Find the place in this layout that corresponds to a place in another layout of the same entry,
+     * such as one from before the entry was edited.
+     * <p>
+     * The place is kept relative to the nearest heading above it, so that edits elsewhere don't move it.
+     * Headings are matched by their text, and by how many headings before them share it.
+     *
+     * @return The corresponding y, or the same y if the heading isn't in this layout.
+     */
+    public int findPlace(PageLayout other, int y) {
+        int index = -1;
+        while(index + 1 < other.anchors.size() && other.anchors.get(index + 1).y <= y) {
+            index++;
+        }
+        if(index == -1) {
+            return y;
+        }
+        Anchor above = other.anchors.get(index);
+        int occurrence = 0;
+        for(int i = 0; i < index; i++) {
+            if(other.anchors.get(i).text.equals(above.text)) {
+                occurrence++;
+            }
+        }
+
+        Anchor match = null;
+        for(Anchor anchor : anchors) {
+            if(anchor.text.equals(above.text)) {
+                match = anchor;
+                if(occurrence-- == 0) break;
+            }
+        }
+        return match == null ? y : match.y + y - above.y;
+    }
+
+    /**
+     * Find where the given terms were laid out, as split by {@link SearchIndex#forEachTerm}.
+     *
+     * @return The bounds of every occurrence, as {minX, minY, maxX, maxY}, in layout order.
+     */
+    public List<int[]> findTerms(Set<String> terms) {
+        List<int[]> rects = new ArrayList<>();
+        for(DrawOp op : ops) {
+            if(op instanceof DrawOp.Text) {
+                DrawOp.Text text = (DrawOp.Text) op;
+                boolean bold = text.format.contains(TextFormatting.BOLD.toString());
+                SearchIndex.forEachTerm(text.text, text.start, text.end, (term, start, end) -> {
+                    if(!terms.contains(term)) return;
+                    float minX = text.x + getWidth(text.text, text.start, start, bold) * text.scale;
+                    float maxX = minX + getWidth(text.text, start, end, bold) * text.scale;
+                    rects.add(new int[] {(int) minX, op.minY, (int) Math.ceil(maxX), op.maxY});
+                });
+            } else if(op instanceof DrawOp.Mono) {
+                DrawOp.Mono mono = (DrawOp.Mono) op;
+                SearchIndex.forEachTerm(mono.text, mono.start, mono.end, (term, start, end) -> {
+                    if(!terms.contains(term)) return;
+                    float minX = mono.x + MonoRenderer.getStringWidth(start - mono.start) * mono.scale;
+                    float maxX = minX + MonoRenderer.getStringWidth(end - start) * mono.scale;
+                    rects.add(new int[] {(int) minX, op.minY, (int) Math.ceil(maxX), op.maxY});
+                });
+            }
+        }
+        return rects;
+    }
+
+    private static int getWidth(String text, int start, int end, boolean bold) {
+        int width = 0;
+        for(int i = start; i < end; i++) {
+            width += TextHelper.getAdvance(text.charAt(i), bold);
+        }
+        return width;
+    }
+
+    private static List<ClickableComponent> toComponents(List<Hitbox> hits) {
+        hits.sort(Comparator.comparingInt(box -> box.index));
+        List<ClickableComponent> components = new ArrayList<>(hits.size());
+        int last = -1;
+        for(Hitbox box : hits) {
+            if(box.index != last) {
+                components.add(box.component);
+                last = box.index;
+            }
+        }
+        return components;
+    }
+
+    /**
+     * @return The heading with the given slug, or null if there is none.
+     */
+    @Nullable
+    public Anchor getAnchor(String slug) {
+        return anchorIndex.get(slug);
+    }
+
+    /**
+     * @return The last heading at or above y, or null if y is above every heading.
+     */
+    @Nullable
+    public Anchor getAnchorAbove(int y) {
+        Anchor above = null;
+        for(Anchor anchor : anchors) {
+            if(anchor.y > y) break;
+            above = anchor;
+        }
+        return above;
+    }
+
+    /**
+     * A heading, and the y it was laid out at.
+     */
+    public static class Anchor {
+
+        private static final Pattern SLUG_REMOVED = Pattern.compile("[^\\p{L}\\p{M}\\p{N}\\p{Pc} \\-]");
+
+        public final String text;
+        public final String slug;
+        public final int level;
+        public final int y;
+
+        public Anchor(String text, String slug, int level, int y) {
+            this.text = text;
+            this.slug = slug;
+            this.level = level;
+            this.y = y;
+        }
+
+        /**
+         * Make a slug for a heading the way GitHub does, lowercase, without punctuation, and with spaces as hyphens.
+         * Headings with the same slug are told apart by the caller, with a numbered suffix.
+         */
+        public static String toSlug(String text) {
+            return SLUG_REMOVED.matcher(text.trim().toLowerCase(Locale.ROOT)).replaceAll("").replace(' ', '-');
+        }
+
+    }
+
+    private static class Hitbox {
+
+        private final ClickableComponent component;
+        private final int index;
+        private final int minX;
+        private final int minY;
+        private final int maxX;
+        private final int maxY;
+
+        private Hitbox(ClickableComponent component, int index, int[] bound) {
+            this.component = component;
+            this.index = index;
+            minX = Math.min(bound[0], bound[2]);
+            minY = Math.min(bound[1], bound[3]);
+            maxX = Math.max(bound[0], bound[2]);
+            maxY = Math.max(bound[1], bound[3]);
+        }
+
+    }
+
+}
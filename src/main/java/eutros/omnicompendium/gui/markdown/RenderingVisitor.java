@@ -3,14 +3,12 @@ package eutros.omnicompendium.gui.markdown;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import eutros.omnicompendium.gui.ClickableComponent;
-import eutros.omnicompendium.gui.GuiCompendium;
 import eutros.omnicompendium.gui.entry.CompendiumEntry;
+import eutros.omnicompendium.gui.entry.LinkGraph;
 import eutros.omnicompendium.helper.FileHelper;
 import eutros.omnicompendium.helper.TextHelper;
 import eutros.omnicompendium.loader.ImageLoader;
 import net.minecraft.client.Minecraft;
-import net.minecraft.client.gui.Gui;
-import net.minecraft.client.renderer.GlStateManager;
 import net.minecraft.client.resources.I18n;
 import net.minecraft.client.settings.GameSettings;
 import net.minecraft.util.text.Style;
@@ -19,21 +17,38 @@ import org.commonmark.ext.gfm.strikethrough.Strikethrough;
 import org.commonmark.ext.gfm.tables.TableRow;
 import org.commonmark.node.*;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Supplier;
 
+/**
+ * Lays out a single document into a {@link PageLayout}.
+ * <p>
+ * Each visitor holds the layout state of one document, and doesn't touch GL, so any number of documents can be
+ * laid out at once, on any thread. The finished layout is immutable, and can be handed to the client thread as is.
+ */
 public class RenderingVisitor extends AbstractVisitor {
 
-    public static final RenderingVisitor INSTANCE = new RenderingVisitor();
+    private static final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Omnicompendium Layout");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     @Nullable
-    public CompendiumEntry entry = null;
+    private final CompendiumEntry entry;
     @Nullable
-    public File source = null;
+    private final File source;
+    private final int pageWidth;
 
     public static final int CODE_COLOR = 0xFF000000;
     public static final int CODE_BLOCK_BG_COLOR = 0xFFDDDDDD;
@@ -43,72 +58,145 @@ public class RenderingVisitor extends AbstractVisitor {
     private int baseX;
     private int width;
     private int x;
-    public int y;
+    private int y;
 
     private Style style;
     private String marker;
 
-    private RenderingVisitor() {
+    // heading scale, applied to everything laid out below originY
+    private double scale;
+    private int originY;
+
+    private final List<DrawOp> ops = new ArrayList<>();
+    private final List<ClickableComponent> clickableComponents = new ArrayList<>();
+    private final List<PageLayout.Anchor> anchors = new ArrayList<>();
+    private final Map<String, Integer> slugCounts = new HashMap<>();
+
+    private RenderingVisitor(@Nullable CompendiumEntry entry, @Nullable File source, int pageWidth) {
+        this.entry = entry;
+        this.source = source;
+        this.pageWidth = pageWidth;
         reset();
     }
 
-    public void reset() {
+    /**
+     * Lay out a document on the calling thread.
+     */
+    @Nonnull
+    public static PageLayout layout(Node node, @Nullable CompendiumEntry entry, @Nullable File source, int pageWidth) {
+        int imageGeneration = ImageLoader.getGeneration();
+        int fontGeneration = TextHelper.getGeneration();
+        LinkGraph graph = LinkGraph.get();
+        RenderingVisitor visitor = new RenderingVisitor(entry, source, pageWidth);
+        node.accept(visitor);
+        if(entry != null) {
+            visitor.drawBacklinks(entry, graph.getBacklinks(entry));
+        }
+        return new PageLayout(visitor.ops, visitor.clickableComponents, visitor.anchors, pageWidth, visitor.y, imageGeneration, graph.generation, fontGeneration);
+    }
+
+    /**
+     * Lay out a document on the layout thread, getting the document there too, since it may need parsing.
+     * <p>
+     * The returned future may be completed early by the caller, with a layout it made itself, in which case the
+     * document is not laid out again.
+     */
+    @Nonnull
+    public static CompletableFuture<PageLayout> layoutAsync(Supplier<? extends Node> node, @Nullable CompendiumEntry entry, @Nullable File source, int pageWidth) {
+        CompletableFuture<PageLayout> future = new CompletableFuture<>();
+        worker.execute(() -> {
+            if(future.isDone()) return;
+            try {
+                future.complete(layout(node.get(), entry, source, pageWidth));
+            } catch(Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    private void reset() {
         fontHeight = mc.fontRenderer.FONT_HEIGHT;
         y = 0;
         x = 0;
         marker = null;
         baseX = 0;
-        width = GuiCompendium.ENTRY_WIDTH;
+        width = pageWidth;
         style = new Style();
         style.setColor(DEFAULT_COLOUR);
+        scale = 1;
+        originY = 0;
     }
 
     @Override
     public void visit(Document document) {
         reset();
         visitChildren(document);
-        entry = null;
-        source = null;
     }
 
-    private void drawText(String text) {
-        String[] firstWord = text.trim().split(" ", 2);
-        if(firstWord.length == 0) {
-            return; // okay
-        }
+    private float transformX(int x) {
+        return (float) (x * scale);
+    }
 
-        if(x != 0 && width - x < mc.fontRenderer.getStringWidth(firstWord[0])) {
-            x = 0;
-            y += mc.fontRenderer.FONT_HEIGHT;
-            text = text.replaceFirst("^\\s+", "");
-        }
-        String str = style.getFormattingCode() + text;
+    private float transformY(int y) {
+        return (float) (originY + (y - originY) * scale);
+    }
 
-        int i = TextHelper.trimStringToWidth(str, width - x);
+    private void addText(String text, int x, int y, int color) {
+        ops.add(new DrawOp.Text(text, transformX(x), transformY(y), (float) scale, color));
+    }
 
-        String firstLine = str.substring(0, i);
+    private void addText(String format, TextRun run, int start, int end, int x, int y) {
+        ops.add(new DrawOp.Text(format, run.text, start, end, transformX(x), transformY(y), (float) scale, 0xFF000000));
+    }
 
-        mc.fontRenderer.drawString(firstLine.trim(), baseX + x, y, 0xFF000000);
-        if(str.length() <= i) {
-            x += mc.fontRenderer.getStringWidth(firstLine);
+    private void addMono(String text, int start, int end, int x, int y, int color) {
+        ops.add(new DrawOp.Mono(text, start, end, transformX(x), transformY(y), (float) scale, color));
+    }
+
+    private void addRect(int minX, int minY, int maxX, int maxY, int color) {
+        ops.add(new DrawOp.Rect((int) transformX(minX), (int) transformY(minY), (int) transformX(maxX), (int) transformY(maxY), color));
+    }
+
+    private void addImage(ImageLoader.Image image, int x, int y, int[] size) {
+        ops.add(new DrawOp.Image(image, (int) transformX(x), (int) transformY(y), (int) (size[0] * scale), (int) (size[1] * scale)));
+    }
+
+    private void drawText(String literal) {
+        if(literal.isEmpty()) {
             return;
         }
 
-        char c0 = str.charAt(i);
-        boolean flag = c0 == ' ' || c0 == '\n';
-        text = str.substring(i + (flag ? 1 : 0));
-        text = style.getFormattingCode() + text;
+        TextRun run = new TextRun(literal, style.getBold());
+        String format = style.getFormattingCode();
+        int length = run.length();
+        int start = 0;
 
-        y += mc.fontRenderer.FONT_HEIGHT;
-        List<String> strings = mc.fontRenderer.listFormattedStringToWidth(text, width);
+        if(x != 0) {
+            int wordStart = 0;
+            while(wordStart < length && Character.isWhitespace(literal.charAt(wordStart))) {
+                wordStart++;
+            }
+            if(width - x < run.getWidth(wordStart, run.nextBreak(wordStart))) {
+                x = 0;
+                y += mc.fontRenderer.FONT_HEIGHT;
+                start = wordStart;
+            }
+        }
 
-        for(String s : strings.subList(0, strings.size() - 1)) {
-            mc.fontRenderer.drawString(s, baseX, y, 0xFF000000);
+        while(true) {
+            int end = run.fit(start, width - x);
+            if(end >= length) {
+                addText(format, run, start, length, baseX + x, y);
+                x += run.getWidth(start, length);
+                return;
+            }
+
+            addText(format, run, start, run.trimEnd(start, end), baseX + x, y);
+            start = run.skipBreak(end);
+            x = 0;
             y += mc.fontRenderer.FONT_HEIGHT;
         }
-        String lastString = strings.get(strings.size() - 1);
-        mc.fontRenderer.drawString(lastString, baseX, y, 0xFF000000);
-        x = mc.fontRenderer.getStringWidth(lastString);
     }
 
     private void lineBreak(Node node) {
@@ -134,7 +222,7 @@ public class RenderingVisitor extends AbstractVisitor {
         style.setColor(DEFAULT_COLOUR);
         baseX -= 8;
         finishLine();
-        Gui.drawRect(
+        addRect(
                 0,
                 oldY - 1,
                 2,
@@ -150,48 +238,45 @@ public class RenderingVisitor extends AbstractVisitor {
         String literal = code.getLiteral();
         int i = MonoRenderer.sizeStringToWidth(literal, width - x);
         if(literal.length() <= i) {
-            Gui.drawRect(baseX + x,
+            addRect(baseX + x,
                     y,
                     baseX + x + MonoRenderer.getStringWidth(literal),
                     y + mc.fontRenderer.FONT_HEIGHT - 1,
                     CODE_BLOCK_BG_COLOR);
-            MonoRenderer.drawString(literal, baseX + x, y, CODE_COLOR);
+            addMono(literal, 0, literal.length(), baseX + x, y, CODE_COLOR);
             x += MonoRenderer.getStringWidth(literal);
         } else {
-            String first = literal.substring(0, i);
-            Gui.drawRect(baseX + x,
+            addRect(baseX + x,
                     y,
                     baseX + width,
                     y + mc.fontRenderer.FONT_HEIGHT - 1,
                     CODE_BLOCK_BG_COLOR);
-            MonoRenderer.drawString(first, baseX + x, y, CODE_COLOR);
+            addMono(literal, 0, i, baseX + x, y, CODE_COLOR);
 
             char c0 = literal.charAt(i);
             boolean flag = c0 == ' ' || c0 == '\n';
-            String s1 = literal.substring(i + (flag ? 1 : 0));
-            List<String> strings = MonoRenderer.listFormattedStringToWidth(s1, GuiCompendium.ENTRY_WIDTH - baseX);
-
-            if(strings.size() > 1) {
-                for(String s : strings.subList(0, strings.size() - 1)) {
-                    y += mc.fontRenderer.FONT_HEIGHT;
-                    Gui.drawRect(baseX,
-                            y,
-                            baseX + width,
-                            y + mc.fontRenderer.FONT_HEIGHT - 1,
-                            CODE_BLOCK_BG_COLOR);
-                    MonoRenderer.drawString(s, baseX, y, CODE_COLOR);
-                }
+            MonoRenderer.Lines lines = MonoRenderer.wrap(literal, i + (flag ? 1 : 0), pageWidth - baseX);
+
+            int last = lines.count() - 1;
+            for(int line = 0; line < last; line++) {
+                y += mc.fontRenderer.FONT_HEIGHT;
+                addRect(baseX,
+                        y,
+                        baseX + width,
+                        y + mc.fontRenderer.FONT_HEIGHT - 1,
+                        CODE_BLOCK_BG_COLOR);
+                addMono(literal, lines.start(line), lines.end(line), baseX, y, CODE_COLOR);
             }
 
             y += mc.fontRenderer.FONT_HEIGHT;
-            String lastString = strings.get(strings.size() - 1);
-            Gui.drawRect(baseX,
+            int lastWidth = MonoRenderer.getStringWidth(lines.end(last) - lines.start(last));
+            addRect(baseX,
                     y,
-                    baseX + MonoRenderer.getStringWidth(lastString),
+                    baseX + lastWidth,
                     y + mc.fontRenderer.FONT_HEIGHT - 1,
                     CODE_BLOCK_BG_COLOR);
-            MonoRenderer.drawString(lastString, baseX, y, CODE_COLOR);
-            x = MonoRenderer.getStringWidth(lastString);
+            addMono(literal, lines.start(last), lines.end(last), baseX, y, CODE_COLOR);
+            x = lastWidth;
         }
     }
 
@@ -206,8 +291,8 @@ public class RenderingVisitor extends AbstractVisitor {
     public void visit(FencedCodeBlock fencedCodeBlock) {
         int[] rect = drawCodeBlock(fencedCodeBlock.getLiteral());
         String info = fencedCodeBlock.getInfo();
-        if(entry != null && entry.clickableComponents != null && info != null && !info.trim().isEmpty()) {
-            entry.clickableComponents.add(
+        if(entry != null && info != null && !info.trim().isEmpty()) {
+            clickableComponents.add(
                     ClickableComponent.byBounds(
                             rect[0],
                             rect[1],
@@ -234,8 +319,8 @@ public class RenderingVisitor extends AbstractVisitor {
         width -= padding * 2;
         y += padding;
 
-        List<String> strings = MonoRenderer.listFormattedStringToWidth(literal, width);
-        int height = strings.size() * mc.fontRenderer.FONT_HEIGHT;
+        MonoRenderer.Lines lines = MonoRenderer.getLines(literal, width);
+        int height = lines.count() * mc.fontRenderer.FONT_HEIGHT;
 
         int[] rect = {
                 baseX - padding,
@@ -244,7 +329,7 @@ public class RenderingVisitor extends AbstractVisitor {
                 y + height + padding,
         };
 
-        Gui.drawRect(
+        addRect(
                 rect[0],
                 rect[1],
                 rect[2],
@@ -252,8 +337,8 @@ public class RenderingVisitor extends AbstractVisitor {
                 CODE_BLOCK_BG_COLOR
         );
 
-        for(String string : strings) {
-            MonoRenderer.drawString(string, baseX, y, 0xFF000000);
+        for(int line = 0; line < lines.count(); line++) {
+            addMono(literal, lines.start(line), lines.end(line), baseX, y, 0xFF000000);
             y += mc.fontRenderer.FONT_HEIGHT;
         }
 
@@ -285,15 +370,17 @@ public class RenderingVisitor extends AbstractVisitor {
         int oldWidth = this.width;
         width = (int) (width / scale);
         int oldY = y;
+        String text = getText(heading);
+        anchors.add(new PageLayout.Anchor(text, getSlug(text), level, y));
 
         int oldHeight = fontHeight;
         fontHeight = (int) (fontHeight * scale);
 
-        GlStateManager.pushMatrix();
-        GlStateManager.translate(0, -y * (scale - 1), 0);
-        GlStateManager.scale(scale, scale, 1);
+        this.scale = scale;
+        originY = y;
         visitChildren(heading);
-        GlStateManager.popMatrix();
+        this.scale = 1;
+        originY = 0;
 
         fontHeight = oldHeight;
 
@@ -308,8 +395,36 @@ public class RenderingVisitor extends AbstractVisitor {
         x = 0;
     }
 
+    /**
+     * @return The slug of a heading, with a number after it if an earlier heading has the same one, as on GitHub.
+     */
+    private String getSlug(String text) {
+        String slug = PageLayout.Anchor.toSlug(text);
+        int count = slugCounts.merge(slug, 1, Integer::sum) - 1;
+        return count == 0 ? slug : slug + "-" + count;
+    }
+
+    /**
+     * @return The text of a node and its children, without any markup.
+     */
+    private static String getText(Node node) {
+        StringBuilder sb = new StringBuilder();
+        node.accept(new AbstractVisitor() {
+            @Override
+            public void visit(Text text) {
+                sb.append(text.getLiteral());
+            }
+
+            @Override
+            public void visit(Code code) {
+                sb.append(code.getLiteral());
+            }
+        });
+        return sb.toString();
+    }
+
     private void drawLine() {
-        Gui.drawRect(5, y + 4, this.width - 5, y + 5, 0xFF000000);
+        addRect(5, y + 4, this.width - 5, y + 5, 0xFF000000);
         y += mc.fontRenderer.FONT_HEIGHT;
         x = 0;
     }
@@ -325,12 +440,14 @@ public class RenderingVisitor extends AbstractVisitor {
         finishLine();
         String link = image.getDestination();
 
-        ImageLoader.Image im = FileHelper.getRelative(source, link).map(ImageLoader::get).orElse(ImageLoader.missing);
+        ImageLoader.Image missing = ImageLoader.getMissing();
+        ImageLoader.Image im = FileHelper.getRelative(source, link).map(ImageLoader::get).orElse(missing);
 
-        if(im != ImageLoader.missing) {
-            int[] size = im.draw(baseX, y, width);
-            if(entry != null && entry.clickableComponents != null) {
-                entry.clickableComponents.add(
+        if(im != missing) {
+            int[] size = im.getSize(width);
+            addImage(im, baseX, y, size);
+            if(entry != null) {
+                clickableComponents.add(
                         ClickableComponent.bySize(
                                 baseX,
                                 y,
@@ -347,7 +464,8 @@ public class RenderingVisitor extends AbstractVisitor {
 
             int[] size;
             if(im != null) {
-                size = im.draw(baseX, y, 8);
+                size = im.getSize(8);
+                addImage(im, baseX, y, size);
                 x += size[0];
             }
 
@@ -356,8 +474,8 @@ public class RenderingVisitor extends AbstractVisitor {
             style.setColor(DEFAULT_COLOUR);
             finishLine();
 
-            if(entry != null && entry.clickableComponents != null) {
-                entry.clickableComponents.add(
+            if(entry != null) {
+                clickableComponents.add(
                         ClickableComponent.byBounds(
                                 baseX,
                                 startY,
@@ -373,6 +491,40 @@ public class RenderingVisitor extends AbstractVisitor {
         lineBreak(image);
     }
 
+    /**
+     * List the entries that link to this one below the document, each linking back to its entry.
+     */
+    private void drawBacklinks(CompendiumEntry entry, List<CompendiumEntry> backlinks) {
+        if(backlinks.isEmpty()) return;
+
+        finishLine();
+        y += mc.fontRenderer.FONT_HEIGHT;
+        drawLine();
+        style.setBold(true);
+        drawText(I18n.format("omnicompendium.entry.linked_from"));
+        style.setBold(false);
+        finishLine();
+
+        style.setColor(TextFormatting.BLUE);
+        for(CompendiumEntry backlink : backlinks) {
+            int startY = y;
+            drawText(backlink.getTitle());
+            finishLine();
+            String link = backlink.source != null ? backlink.source.getName() : backlink.getTitle();
+            clickableComponents.add(
+                    ClickableComponent.byBounds(
+                            baseX,
+                            startY,
+                            baseX + width,
+                            y
+                    )
+                            .withTooltip(linkTooltip(null, link))
+                            .withCallback(entry.linkFunction(backlink))
+            );
+        }
+        style.setColor(DEFAULT_COLOUR);
+    }
+
     private static Supplier<List<String>> linkTooltip(@Nullable String title, String link) {
         List<String> sneak = linkTooltip(title, link, true);
         List<String> noSneak = linkTooltip(title, link, false);
@@ -404,7 +556,7 @@ public class RenderingVisitor extends AbstractVisitor {
         visitChildren(link);
         style.setColor(DEFAULT_COLOUR);
 
-        if(entry != null && entry.clickableComponents != null) {
+        if(entry != null) {
 
             String title = link.getTitle();
             String destination = link.getDestination();
@@ -415,7 +567,7 @@ public class RenderingVisitor extends AbstractVisitor {
             ClickableComponent clickable = ClickableComponent.empty()
                     .withTooltip(tooltip)
                     .withCallback(func);
-            entry.clickableComponents.add(clickable);
+            clickableComponents.add(clickable);
             if(startY != y) {
                 clickable.addArea(
                         baseX + startX,
@@ -494,7 +646,7 @@ public class RenderingVisitor extends AbstractVisitor {
 
     @Override
     public void visit(ListItem listItem) {
-        mc.fontRenderer.drawString(marker, baseX - LIST_INDENT, y, 0xFF000000);
+        addText(marker, baseX - LIST_INDENT, y, 0xFF000000);
         visitChildren(listItem);
         if(listItem.getParent() instanceof ListBlock && ((ListBlock) listItem.getParent()).isTight()) {
             finishLine();
@@ -533,7 +685,7 @@ public class RenderingVisitor extends AbstractVisitor {
                     .put(TableRow.class, (TableRow tableRow) -> {
                         int color = 0xFF000000;
 
-                        Gui.drawRect(
+                        addRect(
                                 baseX,
                                 y,
                                 baseX + width,
@@ -578,7 +730,7 @@ public class RenderingVisitor extends AbstractVisitor {
 
                         for(int i = 0; i < count; i++) {
                             int left = (width / count) * i;
-                            Gui.drawRect(
+                            addRect(
                                     baseX + left,
                                     startY,
                                     baseX + left + 1,
@@ -586,7 +738,7 @@ public class RenderingVisitor extends AbstractVisitor {
                                     color
                             );
                         }
-                        Gui.drawRect(baseX + width,
+                        addRect(baseX + width,
                                 startY,
                                 baseX + width - 1,
                                 y,
@@ -594,7 +746,7 @@ public class RenderingVisitor extends AbstractVisitor {
 
 
                         if(tableRow.getNext() == null) {
-                            Gui.drawRect(
+                            addRect(
                                     baseX,
                                     y,
                                     baseX + width,
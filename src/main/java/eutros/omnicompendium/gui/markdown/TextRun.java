@@ -0,0 +1,143 @@
+package eutros.omnicompendium.gui.markdown;
+
+import eutros.omnicompendium.helper.TextHelper;
+
+/**
+ * A run of text in a single style, measured once so it can be broken into lines by index, without creating strings.
+ * <p>
+ * Line breaking follows {@link net.minecraft.client.gui.FontRenderer#listFormattedStringToWidth(String, int)}:
+ * a line ends at the last space before the text overflows, or at the overflowing character if there is none,
+ * and always at a newline.
+ */
+public class TextRun {
+
+    public final String text;
+    private final int[] advance; // advance[i] is the width of text[0, i)
+    private final int[] breaks; // indices of every space and newline, ascending
+
+    public TextRun(String text, boolean bold) {
+        this.text = text;
+        int length = text.length();
+        advance = new int[length + 1];
+
+        int breakCount = 0;
+        for(int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            advance[i + 1] = advance[i] + TextHelper.getAdvance(c, bold);
+            if(c == ' ' || c == '\n') {
+                breakCount++;
+            }
+        }
+
+        breaks = new int[breakCount];
+        for(int i = 0, j = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if(c == ' ' || c == '\n') {
+                breaks[j++] = i;
+            }
+        }
+    }
+
+    public int length() {
+        return text.length();
+    }
+
+    /**
+     * @return The width of text[from, to).
+     */
+    public int getWidth(int from, int to) {
+        return advance[to] - advance[from];
+    }
+
+    /**
+     * @return The index of the first space or newline at or after from, or the length of the text if there is none.
+     */
+    public int nextBreak(int from) {
+        int i = lowerBound(breaks, from);
+        return i < breaks.length ? breaks[i] : text.length();
+    }
+
+    /**
+     * Find where a line starting at from must end to fit in the given width.
+     *
+     * @return The end of the line, exclusive. Equal to the length of the text if the rest of it fits.
+     * Always greater than from, unless from is at a newline.
+     */
+    public int fit(int from, int width) {
+        int length = text.length();
+
+        // last index such that text[from, end) fits
+        int low = from;
+        int high = length;
+        int limit = advance[from] + width;
+        while(low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if(advance[mid] <= limit) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int end = low;
+
+        int lastSpace = -1;
+        for(int i = lowerBound(breaks, from); i < breaks.length && breaks[i] < end; i++) {
+            if(text.charAt(breaks[i]) == '\n') {
+                return breaks[i];
+            }
+            lastSpace = breaks[i];
+        }
+
+        if(end >= length) {
+            return length;
+        }
+        char overflow = text.charAt(end);
+        if(overflow == ' ' || overflow == '\n') {
+            return end;
+        }
+        if(lastSpace != -1) {
+            return lastSpace;
+        }
+        // not even one character fits, put it on a line of its own
+        return Math.max(end, from + 1);
+    }
+
+    /**
+     * @return The index after the break at end, to start the next line at.
+     */
+    public int skipBreak(int end) {
+        if(end < text.length()) {
+            char c = text.charAt(end);
+            if(c == ' ' || c == '\n') {
+                return end + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @return The end of text[from, to) with any trailing spaces removed.
+     */
+    public int trimEnd(int from, int to) {
+        while(to > from && text.charAt(to - 1) == ' ') {
+            to--;
+        }
+        return to;
+    }
+
+    // first index with array[i] >= key
+    private static int lowerBound(int[] array, int key) {
+        int low = 0;
+        int high = array.length;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(array[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+}
@@ -0,0 +1,308 @@
+package eutros.omnicompendium.gui.render;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.FontRenderer;
+import net.minecraft.client.renderer.BufferBuilder;
+import net.minecraft.client.renderer.GlStateManager;
+import net.minecraft.client.renderer.WorldVertexBufferUploader;
+import net.minecraft.client.renderer.vertex.DefaultVertexFormats;
+import net.minecraft.util.ResourceLocation;
+import org.lwjgl.opengl.GL11;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects solid rects, glyphs and textured quads into a few vertex buffers, to be submitted in a handful of draw calls.
+ * <p>
+ * Glyphs from the default ASCII font page are emitted the same way {@link FontRenderer} would draw them,
+ * including formatting codes. Anything else (unicode pages, the forced unicode font) falls back to the
+ * {@link FontRenderer} after the batches are drawn.
+ */
+public class DrawList {
+
+    public static final ResourceLocation ASCII_TEXTURE = new ResourceLocation("textures/font/ascii.png");
+
+    private static final String FORMATTING_CODES = "0123456789abcdefklmnor";
+    private static final int[] COLOR_CODES = new int[16];
+
+    static {
+        // Copied from FontRenderer#FontRenderer, without the shadow colours.
+        for(int i = 0; i < 16; i++) {
+            int j = (i >> 3 & 1) * 85;
+            int r = (i >> 2 & 1) * 170 + j;
+            int g = (i >> 1 & 1) * 170 + j;
+            int b = (i & 1) * 170 + j;
+
+            if(i == 6) {
+                r += 85;
+            }
+
+            COLOR_CODES[i] = (r & 255) << 16 | (g & 255) << 8 | b & 255;
+        }
+    }
+
+    private final Minecraft mc = Minecraft.getMinecraft();
+    private final WorldVertexBufferUploader uploader = new WorldVertexBufferUploader();
+
+    private final BufferBuilder rects = new BufferBuilder(0x1000);
+    private final BufferBuilder glyphs = new BufferBuilder(0x10000);
+    private final Map<Integer, BufferBuilder> textures = new LinkedHashMap<>();
+    private final Deque<BufferBuilder> texturePool = new ArrayDeque<>();
+    private final List<Runnable> fallback = new ArrayList<>();
+    private boolean complete;
+
+    public void begin() {
+        rects.begin(GL11.GL_QUADS, DefaultVertexFormats.POSITION_COLOR);
+        glyphs.begin(GL11.GL_QUADS, DefaultVertexFormats.POSITION_TEX_COLOR);
+        complete = true;
+    }
+
+    /**
+     * Note that something couldn't be added yet, such as an image that is still loading.
+     */
+    public void markIncomplete() {
+        complete = false;
+    }
+
+    /**
+     * @return Whether everything since the last {@link #begin()} was actually added.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public void draw() {
+        GlStateManager.enableBlend();
+        // alpha is accumulated properly, so the result can be drawn onto transparent framebuffers
+        GlStateManager.tryBlendFuncSeparate(
+                GlStateManager.SourceFactor.SRC_ALPHA,
+                GlStateManager.DestFactor.ONE_MINUS_SRC_ALPHA,
+                GlStateManager.SourceFactor.ONE,
+                GlStateManager.DestFactor.ONE_MINUS_SRC_ALPHA
+        );
+
+        GlStateManager.disableTexture2D();
+        finishAndDraw(rects);
+        GlStateManager.enableTexture2D();
+
+        GlStateManager.color(1, 1, 1, 1);
+        for(Map.Entry<Integer, BufferBuilder> entry : textures.entrySet()) {
+            GlStateManager.bindTexture(entry.getKey());
+            finishAndDraw(entry.getValue());
+            texturePool.push(entry.getValue());
+        }
+        textures.clear();
+
+        mc.getTextureManager().bindTexture(ASCII_TEXTURE);
+        finishAndDraw(glyphs);
+
+        for(Runnable runnable : fallback) {
+            runnable.run();
+        }
+        fallback.clear();
+    }
+
+    private void finishAndDraw(BufferBuilder buffer) {
+        buffer.finishDrawing();
+        uploader.draw(buffer);
+    }
+
+    public void addRect(float minX, float minY, float maxX, float maxY, int color) {
+        int a = color >> 24 & 255;
+        int r = color >> 16 & 255;
+        int g = color >> 8 & 255;
+        int b = color & 255;
+
+        rects.pos(minX, maxY, 0).color(r, g, b, a).endVertex();
+        rects.pos(maxX, maxY, 0).color(r, g, b, a).endVertex();
+        rects.pos(maxX, minY, 0).color(r, g, b, a).endVertex();
+        rects.pos(minX, minY, 0).color(r, g, b, a).endVertex();
+    }
+
+    public void addTexture(int tex, float x, float y, float width, float height, float minU, float minV, float maxU, float maxV) {
+        addTexture(tex, x, y, width, height, minU, minV, maxU, maxV, 0xFFFFFFFF);
+    }
+
+    /**
+     * Add a textured quad, with its colours multiplied by the given colour.
+     */
+    public void addTexture(int tex, float x, float y, float width, float height, float minU, float minV, float maxU, float maxV, int color) {
+        BufferBuilder buf = textures.computeIfAbsent(tex, t -> {
+            BufferBuilder b = texturePool.isEmpty() ? new BufferBuilder(0x400) : texturePool.pop();
+            b.begin(GL11.GL_QUADS, DefaultVertexFormats.POSITION_TEX_COLOR);
+            return b;
+        });
+
+        int a = color >> 24 & 255;
+        int r = color >> 16 & 255;
+        int g = color >> 8 & 255;
+        int b = color & 255;
+
+        buf.pos(x, y, 0).tex(minU, minV).color(r, g, b, a).endVertex();
+        buf.pos(x, y + height, 0).tex(minU, maxV).color(r, g, b, a).endVertex();
+        buf.pos(x + width, y + height, 0).tex(maxU, maxV).color(r, g, b, a).endVertex();
+        buf.pos(x + width, y, 0).tex(maxU, minV).color(r, g, b, a).endVertex();
+    }
+
+    /**
+     * Add a formatted string, as {@link FontRenderer#drawString(String, int, int, int)} would draw it at the given scale.
+     */
+    public void addText(String text, float x, float y, float scale, int color) {
+        addText("", text, 0, text.length(), x, y, scale, color);
+    }
+
+    /**
+     * Add the range [start, end) of a string, preceded by the given formatting codes, without copying it.
+     */
+    public void addText(String format, String text, int start, int end, float x, float y, float scale, int color) {
+        FontRenderer fr = mc.fontRenderer;
+        if((color & 0xFC000000) == 0) {
+            color |= 0xFF000000;
+        }
+
+        if(!isBatchable(format, 0, format.length()) || !isBatchable(text, start, end)) {
+            int c = color;
+            String str = format + text.substring(start, end);
+            fallback.add(() -> {
+                GlStateManager.pushMatrix();
+                GlStateManager.translate(x, y, 0);
+                GlStateManager.scale(scale, scale, 1);
+                fr.drawString(str, 0, 0, c, false);
+                GlStateManager.popMatrix();
+            });
+            return;
+        }
+
+        int current = color;
+        boolean bold = false;
+        boolean italic = false;
+        boolean strikethrough = false;
+        boolean underline = false;
+
+        float posX = 0;
+        int offset = format.length();
+        int length = offset + end - start;
+        for(int i = 0; i < length; i++) {
+            char c = i < offset ? format.charAt(i) : text.charAt(start + i - offset);
+
+            if(c == '\u00a7' && i + 1 < length) {
+                i++;
+                char next = i < offset ? format.charAt(i) : text.charAt(start + i - offset);
+                int code = FORMATTING_CODES.indexOf(Character.toLowerCase(next));
+                if(code < 16) {
+                    bold = italic = strikethrough = underline = false;
+                    current = COLOR_CODES[code < 0 ? 15 : code] | (color & 0xFF000000);
+                } else if(code == 17) {
+                    bold = true;
+                } else if(code == 18) {
+                    strikethrough = true;
+                } else if(code == 19) {
+                    underline = true;
+                } else if(code == 20) {
+                    italic = true;
+                } else if(code == 21) {
+                    bold = italic = strikethrough = underline = false;
+                    current = color;
+                }
+                continue;
+            }
+
+            float advance = addGlyph(c, x, y, posX, scale, italic, current);
+            if(bold) {
+                addGlyph(c, x, y, posX + 1, scale, italic, current);
+                advance++;
+            }
+
+            if(strikethrough) {
+                int lineY = fr.FONT_HEIGHT / 2;
+                addRect(x + posX * scale, y + (lineY - 1) * scale, x + (posX + advance) * scale, y + lineY * scale, current);
+            }
+            if(underline) {
+                addRect(x + (posX - 1) * scale, y + (fr.FONT_HEIGHT - 1) * scale, x + (posX + advance) * scale, y + fr.FONT_HEIGHT * scale, current);
+            }
+
+            posX += (int) advance;
+        }
+    }
+
+    /**
+     * Add a single unformatted character.
+     */
+    public void addChar(char c, float x, float y, float scale, int color) {
+        if((color & 0xFC000000) == 0) {
+            color |= 0xFF000000;
+        }
+        if(isBatchable(c) && !mc.fontRenderer.getUnicodeFlag()) {
+            addGlyph(c, x, y, 0, scale, false, color);
+        } else {
+            addText(String.valueOf(c), x, y, scale, color);
+        }
+    }
+
+    /**
+     * Add one glyph from the ASCII font page, returning its advance.
+     * <p>
+     * Mirrors FontRenderer#renderDefaultChar.
+     */
+    private float addGlyph(char c, float x, float y, float posX, float scale, boolean italic, int color) {
+        if(c == ' ' || c == '\u00a0') {
+            return 4;
+        }
+
+        int width = mc.fontRenderer.getCharWidth(c);
+        float u = c % 16 * 8;
+        float v = c / 16 * 8;
+        float skew = italic ? 1 : 0;
+        float w = width - 0.01F;
+
+        int a = color >> 24 & 255;
+        int r = color >> 16 & 255;
+        int g = color >> 8 & 255;
+        int b = color & 255;
+
+        glyphs.pos(x + (posX + skew) * scale, y, 0)
+                .tex(u / 128F, v / 128F)
+                .color(r, g, b, a)
+                .endVertex();
+        glyphs.pos(x + (posX - skew) * scale, y + 7.99F * scale, 0)
+                .tex(u / 128F, (v + 7.99F) / 128F)
+                .color(r, g, b, a)
+                .endVertex();
+        glyphs.pos(x + (posX + w - 1 - skew) * scale, y + 7.99F * scale, 0)
+                .tex((u + w - 1) / 128F, (v + 7.99F) / 128F)
+                .color(r, g, b, a)
+                .endVertex();
+        glyphs.pos(x + (posX + w - 1 + skew) * scale, y, 0)
+                .tex((u + w - 1) / 128F, v / 128F)
+                .color(r, g, b, a)
+                .endVertex();
+
+        return width;
+    }
+
+    private static boolean isBatchable(char c) {
+        // in the default ASCII page, these are at the index of their own char code
+        return c >= ' ' && c < 127 || c == '\u00a0';
+    }
+
+    private boolean isBatchable(String text, int start, int end) {
+        if(mc.fontRenderer.getUnicodeFlag()) {
+            return false;
+        }
+        for(int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if(c == '\u00a7') {
+                i++;
+            } else if(!isBatchable(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
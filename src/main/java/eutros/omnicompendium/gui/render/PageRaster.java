@@ -0,0 +1,198 @@
+package eutros.omnicompendium.gui.render;
+
+import eutros.omnicompendium.gui.markdown.PageLayout;
+import eutros.omnicompendium.loader.ImageLoader;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.ScaledResolution;
+import net.minecraft.client.renderer.BufferBuilder;
+import net.minecraft.client.renderer.GlStateManager;
+import net.minecraft.client.renderer.OpenGlHelper;
+import net.minecraft.client.renderer.Tessellator;
+import net.minecraft.client.renderer.vertex.DefaultVertexFormats;
+import net.minecraft.client.shader.Framebuffer;
+import org.lwjgl.opengl.GL11;
+
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rasterizes a {@link PageLayout} into offscreen tiles, so that scrolling and hovering only blit textures.
+ * <p>
+ * Only the tiles near the visible range are kept, so memory stays bounded however long the page is.
+ * Tiles are thrown away when a different layout is drawn (entry change, resize or image reload),
+ * when the GUI scale changes, or when {@link #invalidate()} is called. Tiles drawn while some of their images were
+ * still loading are drawn again once more images have been uploaded.
+ */
+public class PageRaster {
+
+    public static final PageRaster INSTANCE = new PageRaster();
+
+    public static final int TILE_HEIGHT = 128;
+
+    private final Minecraft mc = Minecraft.getMinecraft();
+
+    private final Map<Integer, Framebuffer> tiles = new LinkedHashMap<>(16, 0.75F, true);
+    private final Deque<Framebuffer> spare = new ArrayDeque<>();
+    private final Set<Integer> incomplete = new HashSet<>();
+    private int uploads = 0;
+
+    @Nullable
+    private PageLayout layout = null;
+    private int scaleFactor = 0;
+
+    private PageRaster() {
+    }
+
+    public void draw(PageLayout layout, int minY, int maxY) {
+        if(!OpenGlHelper.isFramebufferEnabled()) {
+            layout.draw(minY, maxY);
+            return;
+        }
+
+        int scaleFactor = new ScaledResolution(mc).getScaleFactor();
+        if(layout != this.layout || scaleFactor != this.scaleFactor) {
+            invalidate();
+            this.layout = layout;
+            this.scaleFactor = scaleFactor;
+        }
+
+        if(uploads != ImageLoader.getUploads()) {
+            uploads = ImageLoader.getUploads();
+            for(Integer index : incomplete) {
+                Framebuffer tile = tiles.remove(index);
+                if(tile != null) {
+                    spare.push(tile);
+                }
+            }
+            incomplete.clear();
+        }
+
+        int first = Math.max(0, minY / TILE_HEIGHT);
+        int last = Math.max(first, maxY / TILE_HEIGHT);
+        int capacity = last - first + 3;
+
+        // touch the visible tiles first, so none of them are the ones evicted
+        for(int i = first; i <= last; i++) {
+            tiles.get(i);
+        }
+
+        for(int i = first; i <= last; i++) {
+            Framebuffer tile = tiles.get(i);
+            if(tile == null) {
+                tile = obtain(capacity, layout.width);
+                render(tile, layout, i);
+                tiles.put(i, tile);
+            }
+            blit(tile, layout.width, i);
+        }
+    }
+
+    /**
+     * Drop all rasterized tiles, keeping their framebuffers to be reused.
+     */
+    public void invalidate() {
+        spare.addAll(tiles.values());
+        tiles.clear();
+        incomplete.clear();
+        layout = null;
+    }
+
+    /**
+     * Drop all rasterized tiles and free their framebuffers.
+     */
+    public void release() {
+        invalidate();
+        for(Framebuffer framebuffer : spare) {
+            framebuffer.deleteFramebuffer();
+        }
+        spare.clear();
+    }
+
+    private Framebuffer obtain(int capacity, int width) {
+        Iterator<Map.Entry<Integer, Framebuffer>> it = tiles.entrySet().iterator();
+        while(tiles.size() >= capacity && it.hasNext()) {
+            Map.Entry<Integer, Framebuffer> eldest = it.next();
+            spare.push(eldest.getValue());
+            incomplete.remove(eldest.getKey());
+            it.remove();
+        }
+
+        int fbWidth = width * scaleFactor;
+        int fbHeight = TILE_HEIGHT * scaleFactor;
+        while(!spare.isEmpty()) {
+            Framebuffer framebuffer = spare.pop();
+            if(framebuffer.framebufferWidth == fbWidth && framebuffer.framebufferHeight == fbHeight) {
+                return framebuffer;
+            }
+            framebuffer.deleteFramebuffer();
+        }
+
+        Framebuffer framebuffer = new Framebuffer(fbWidth, fbHeight, false);
+        framebuffer.setFramebufferColor(0, 0, 0, 0);
+        return framebuffer;
+    }
+
+    private void render(Framebuffer tile, PageLayout layout, int index) {
+        boolean scissor = GL11.glIsEnabled(GL11.GL_SCISSOR_TEST);
+        GL11.glDisable(GL11.GL_SCISSOR_TEST);
+
+        tile.framebufferClear();
+        tile.bindFramebuffer(true);
+
+        GlStateManager.matrixMode(GL11.GL_PROJECTION);
+        GlStateManager.pushMatrix();
+        GlStateManager.loadIdentity();
+        GlStateManager.ortho(0, layout.width, TILE_HEIGHT, 0, 1000, 3000);
+        GlStateManager.matrixMode(GL11.GL_MODELVIEW);
+        GlStateManager.pushMatrix();
+        GlStateManager.loadIdentity();
+        GlStateManager.translate(0, -index * TILE_HEIGHT, -2000);
+
+        if(!layout.draw(index * TILE_HEIGHT, (index + 1) * TILE_HEIGHT)) {
+            incomplete.add(index);
+        }
+
+        GlStateManager.popMatrix();
+        GlStateManager.matrixMode(GL11.GL_PROJECTION);
+        GlStateManager.popMatrix();
+        GlStateManager.matrixMode(GL11.GL_MODELVIEW);
+
+        mc.getFramebuffer().bindFramebuffer(true);
+        if(scissor) {
+            GL11.glEnable(GL11.GL_SCISSOR_TEST);
+        }
+    }
+
+    private void blit(Framebuffer tile, int width, int index) {
+        int y = index * TILE_HEIGHT;
+
+        tile.bindFramebufferTexture();
+        GlStateManager.enableBlend();
+        // the tile was drawn onto transparent black, so its colours are already multiplied by alpha
+        GlStateManager.blendFunc(GlStateManager.SourceFactor.ONE, GlStateManager.DestFactor.ONE_MINUS_SRC_ALPHA);
+        GlStateManager.color(1, 1, 1, 1);
+
+        Tessellator tes = Tessellator.getInstance();
+        BufferBuilder buf = tes.getBuffer();
+        buf.begin(GL11.GL_QUADS, DefaultVertexFormats.POSITION_TEX);
+        buf.pos(0, y, 0).tex(0, 1).endVertex();
+        buf.pos(0, y + TILE_HEIGHT, 0).tex(0, 0).endVertex();
+        buf.pos(width, y + TILE_HEIGHT, 0).tex(1, 0).endVertex();
+        buf.pos(width, y, 0).tex(1, 1).endVertex();
+        tes.draw();
+
+        GlStateManager.tryBlendFuncSeparate(
+                GlStateManager.SourceFactor.SRC_ALPHA,
+                GlStateManager.DestFactor.ONE_MINUS_SRC_ALPHA,
+                GlStateManager.SourceFactor.ONE,
+                GlStateManager.DestFactor.ZERO
+        );
+    }
+
+}
@@ -4,11 +4,12 @@ import eutros.omnicompendium.Omnicompendium;
 import eutros.omnicompendium.loader.GitLoader;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.text.WordUtils;
-import org.apache.commons.lang3.tuple.Pair;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
@@ -17,14 +18,10 @@ import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
-import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
-import java.util.Collections;
-import java.util.List;
-import java.util.Objects;
+import java.util.Iterator;
 import java.util.Optional;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class FileHelper {
@@ -33,41 +30,60 @@ public class FileHelper {
 
     public static Stream<File> getEntries() {
         try {
-            Path root = GitLoader.DIR.toPath();
-            return Files.walk(root, FileVisitOption.FOLLOW_LINKS)
-                    .filter(path -> !path.getParent().equals(root))
-                    .filter(path -> !root.relativize(path).toString().startsWith("."))
+            return Files.walk(GitLoader.DIR.toPath(), FileVisitOption.FOLLOW_LINKS)
+                    .filter(FileHelper::isEntry)
                     .map(Path::toFile)
-                    .filter(File::isFile)
-                    .filter(f -> FilenameUtils.getExtension(f.getName()).toLowerCase().equals("md"));
+                    .filter(File::isFile);
         } catch(IOException e) {
             return Stream.empty();
         }
     }
 
-    public static List<Pair<Path, BufferedImage>> getImages() {
+    /**
+     * @return Whether the file at the path would be listed as an entry, if it exists.
+     */
+    public static boolean isEntry(Path path) {
+        Path root = GitLoader.DIR.toPath();
+        return !root.equals(path.getParent())
+                && !root.relativize(path).toString().startsWith(".")
+                && FilenameUtils.getExtension(path.getFileName().toString()).toLowerCase().equals("md");
+    }
+
+    /**
+     * Read the dimensions of an image from its header, without decoding it.
+     *
+     * @return The width and height of the image, or empty if it isn't a readable image.
+     */
+    public static Optional<int[]> probeImageSize(Path path) {
+        File file = path.toFile();
+        if(!file.isFile()) return Optional.empty();
+
+        try(ImageInputStream stream = ImageIO.createImageInputStream(file)) {
+            if(stream == null) return Optional.empty();
+
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if(!readers.hasNext()) return Optional.empty();
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                return Optional.of(new int[] {reader.getWidth(0), reader.getHeight(0)});
+            } finally {
+                reader.dispose();
+            }
+        } catch(IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    public static Optional<BufferedImage> readImage(Path path) {
         try {
-            Path root = GitLoader.DIR.toPath();
-            return Files.walk(root, FileVisitOption.FOLLOW_LINKS)
-                    .filter(path -> !root.relativize(path).toString().startsWith("."))
-                    .map(Path::toFile)
-                    .filter(File::isFile)
-                    .map(file -> {
-                        try {
-                            BufferedImage image = ImageIO.read(file);
-                            if(image == null) return null;
-                            return Pair.of(file.toPath(), image);
-                        } catch(IOException e) {
-                            return null;
-                        }
-                    })
-                    .filter(Objects::nonNull)
-                    .collect(Collectors.toList());
+            return Optional.ofNullable(ImageIO.read(path.toFile()));
         } catch(IOException e) {
-            return Collections.emptyList();
+            return Optional.empty();
         } catch(Throwable e) {
             Omnicompendium.LOGGER.error("Caught exception from image loading.", e);
-            return Collections.emptyList();
+            return Optional.empty();
         }
     }
 
@@ -83,7 +99,7 @@ public class FileHelper {
 
         try {
             return Optional.of(parent.resolve(URLDecoder.decode(relativePath, StandardCharsets.UTF_8.name())));
-        } catch(InvalidPathException | UnsupportedEncodingException e) {
+        } catch(IllegalArgumentException | UnsupportedEncodingException e) { // invalid paths and escapes
             return Optional.empty();
         }
     }
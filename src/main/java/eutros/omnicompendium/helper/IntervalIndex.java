@@ -0,0 +1,109 @@
+package eutros.omnicompendium.helper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * An immutable index of values spanning vertical intervals, for finding those that intersect a range of y.
+ * <p>
+ * Values are kept stably sorted by their minimum y, under a segment tree of the largest maximum y in each range of
+ * them. A query binary searches for the last value starting within the range, then descends the tree, skipping
+ * every subtree whose intervals all end before the range, so that one tall interval doesn't make every value after
+ * it a candidate. Each value found costs at most a logarithmic number of steps.
+ */
+public class IntervalIndex<T> {
+
+    private final Object[] values;
+    private final int[] minY;
+    private final int[] maxY;
+    private final int leaves; // a power of two
+    private final int[] treeMaxY; // 1 is the root, the children of i are 2i and 2i + 1, the leaves start at leaves
+
+    public IntervalIndex(List<? extends T> values, ToIntFunction<? super T> minY, ToIntFunction<? super T> maxY) {
+        Object[] sorted = values.toArray();
+        //noinspection unchecked
+        Arrays.sort(sorted, Comparator.comparingInt(o -> minY.applyAsInt((T) o)));
+
+        this.values = sorted;
+        this.minY = new int[sorted.length];
+        this.maxY = new int[sorted.length];
+        for(int i = 0; i < sorted.length; i++) {
+            //noinspection unchecked
+            T value = (T) sorted[i];
+            this.minY[i] = minY.applyAsInt(value);
+            this.maxY[i] = maxY.applyAsInt(value);
+        }
+
+        int leaves = 1;
+        while(leaves < sorted.length) {
+            leaves <<= 1;
+        }
+        this.leaves = leaves;
+        treeMaxY = new int[leaves * 2];
+        Arrays.fill(treeMaxY, Integer.MIN_VALUE);
+        System.arraycopy(this.maxY, 0, treeMaxY, leaves, sorted.length);
+        for(int i = leaves - 1; i > 0; i--) {
+            treeMaxY[i] = Math.max(treeMaxY[i * 2], treeMaxY[i * 2 + 1]);
+        }
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Visit, in order of minimum y, every value whose interval intersects [from, to].
+     */
+    public void forEachIn(int from, int to, Consumer<? super T> consumer) {
+        int end = upperBound(minY, to);
+        if(end > 0) {
+            forEachIn(1, 0, leaves, end, from, consumer);
+        }
+    }
+
+    /**
+     * Visit the values under a node, covering indices [low, high), that come before end and have a maximum y of at least from.
+     */
+    private void forEachIn(int node, int low, int high, int end, int from, Consumer<? super T> consumer) {
+        if(low >= end || treeMaxY[node] < from) return;
+
+        if(high - low == 1) {
+            //noinspection unchecked
+            consumer.accept((T) values[low]);
+            return;
+        }
+        int mid = (low + high) >>> 1;
+        forEachIn(node * 2, low, mid, end, from, consumer);
+        forEachIn(node * 2 + 1, mid, high, end, from, consumer);
+    }
+
+    public List<T> query(int from, int to) {
+        List<T> list = new ArrayList<>();
+        forEachIn(from, to, list::add);
+        return list;
+    }
+
+    public List<T> query(int y) {
+        return query(y, y);
+    }
+
+    // first index with array[i] > key
+    private static int upperBound(int[] array, int key) {
+        int low = 0;
+        int high = array.length;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(array[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+}
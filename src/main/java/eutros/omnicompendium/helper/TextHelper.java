@@ -2,62 +2,74 @@ package eutros.omnicompendium.helper;
 
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.FontRenderer;
+import net.minecraft.client.resources.IReloadableResourceManager;
+
+import java.util.Arrays;
 
 public class TextHelper {
 
     private static FontRenderer fr = Minecraft.getMinecraft().fontRenderer;
 
-    public static int trimStringToWidth(String str, int wrapWidth) {
-        int i1 = str.length();
-        int j = 0;
-        int k = 0;
-        int l = -1;
-
-        for(boolean flag1 = false; k < i1; ++k) {
-            char c01 = str.charAt(k);
-
-            switch(c01) {
-                case '\n':
-                    --k;
-                    break;
-                case ' ':
-                    l = k;
-                default:
-                    j += fr.getCharWidth(c01);
-
-                    if(flag1) {
-                        ++j;
-                    }
-
-                    break;
-                case '\u00a7':
-
-                    if(k < i1 - 1) {
-                        ++k;
-                        char c1 = str.charAt(k);
-
-                        if(c1 != 'l' && c1 != 'L') {
-                            if(c1 == 'r' || c1 == 'R' || c1 >= '0' && c1 <= '9' || c1 >= 'a' && c1 <= 'f' || c1 >= 'A' && c1 <= 'F') {
-                                flag1 = false;
-                            }
-                        } else {
-                            flag1 = true;
-                        }
-                    }
-            }
+    private static volatile Advances advances = new Advances(false);
+    private static volatile int generation = 0;
 
-            if(c01 == '\n') {
-                ++k;
-                l = k;
-                break;
-            }
+    /**
+     * Forget every width whenever resources are reloaded, since resource packs can change the font.
+     * The font renderer registers itself first, so it has read the new widths by the time the table is replaced.
+     */
+    public static void registerReloadListener() {
+        ((IReloadableResourceManager) Minecraft.getMinecraft().getResourceManager()).registerReloadListener(manager -> {
+            advances = new Advances(fr.getUnicodeFlag());
+            generation++;
+        });
+    }
+
+    /**
+     * Incremented every time the font may have changed, so that text laid out with the old widths can be laid out again.
+     */
+    public static int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Get the advance of a character, as {@link FontRenderer#getStringWidth(String)} would count it.
+     * <p>
+     * Widths are looked up once per character and remembered, until the unicode font is toggled.
+     * The toggle is only noticed on the client thread, which bumps the {@link #getGeneration() generation} with it,
+     * so anything laid out on another thread meanwhile is laid out again.
+     */
+    public static int getAdvance(char c, boolean bold) {
+        Advances current = advances;
+        if(current.unicode != fr.getUnicodeFlag() && Minecraft.getMinecraft().isCallingFromMinecraftThread()) {
+            current = new Advances(fr.getUnicodeFlag());
+            advances = current;
+            generation++;
+        }
+        return current.get(c, bold);
+    }
+
+    private static class Advances {
+
+        private static final byte UNKNOWN = Byte.MIN_VALUE;
+
+        private final boolean unicode;
+        private final byte[] widths = new byte[Character.MAX_VALUE + 1];
+
+        private Advances(boolean unicode) {
+            this.unicode = unicode;
+            Arrays.fill(widths, UNKNOWN);
+        }
 
-            if(j > wrapWidth) {
-                break;
+        private int get(char c, boolean bold) {
+            int width = widths[c];
+            if(width == UNKNOWN) {
+                // formatting characters are -1
+                width = Math.max(0, fr.getCharWidth(c));
+                widths[c] = (byte) width;
             }
+            return bold && width > 0 ? width + 1 : width;
         }
 
-        return k != i1 && l != -1 && l < k ? l : k;
     }
 
 }
@@ -0,0 +1,140 @@
+package eutros.omnicompendium.loader;
+
+import eutros.omnicompendium.Omnicompendium;
+import eutros.omnicompendium.gui.entry.EntryMetadata;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * What is known about each entry in the repository, saved between launches so unchanged entries needn't be read again.
+ * <p>
+ * Entries are keyed by their path in the repository, and the metadata is only reused while the id of the blob the
+ * file would be stored as is the same. Safe to update from several threads at once.
+ */
+public class EntryIndex {
+
+    public static final File FILE = new File(GitLoader.DIR, "_index.dat");
+    private static final int VERSION = 3;
+
+    private final Map<String, Record> records = new ConcurrentHashMap<>();
+
+    /**
+     * Read the index saved by the last refresh, or an empty one if there is none or it can't be read.
+     */
+    public static EntryIndex load() {
+        EntryIndex index = new EntryIndex();
+        if(!FILE.isFile()) {
+            return index;
+        }
+
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(FILE))))) {
+            if(in.readInt() != VERSION) {
+                return index;
+            }
+            int count = in.readInt();
+            byte[] id = new byte[Constants.OBJECT_ID_LENGTH];
+            for(int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                in.readFully(id);
+                List<String> headings = readStrings(in);
+                List<String> links = readStrings(in);
+                List<String> images = readStrings(in);
+                int wordCount = in.readInt();
+                index.put(path, ObjectId.fromRaw(id), new EntryMetadata(headings, links, images, wordCount));
+            }
+        } catch(IOException e) {
+            Omnicompendium.LOGGER.warn("Failed to read the entry index, it will be rebuilt.", e);
+            index.records.clear();
+        }
+        return index;
+    }
+
+    public void save() {
+        File temp = new File(FILE.getParentFile(), FILE.getName() + ".tmp");
+        try {
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temp))))) {
+                out.writeInt(VERSION);
+                out.writeInt(records.size());
+                for(Map.Entry<String, Record> entry : records.entrySet()) {
+                    Record record = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    record.id.copyRawTo(out);
+                    writeStrings(out, record.metadata.headings);
+                    writeStrings(out, record.metadata.links);
+                    writeStrings(out, record.metadata.images);
+                    out.writeInt(record.metadata.wordCount);
+                }
+            }
+            Files.move(temp.toPath(), FILE.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch(IOException e) {
+            Omnicompendium.LOGGER.warn("Failed to save the entry index.", e);
+        }
+    }
+
+    /**
+     * @return The metadata stored for the path, or null if there is none or the blob has changed since.
+     */
+    @Nullable
+    public EntryMetadata get(String path, ObjectId id) {
+        Record record = records.get(path);
+        return record != null && record.id.equals(id) ? record.metadata : null;
+    }
+
+    public void put(String path, ObjectId id, EntryMetadata metadata) {
+        records.put(path, new Record(id, metadata));
+    }
+
+    public void remove(String path) {
+        records.remove(path);
+    }
+
+    public Map<String, EntryMetadata> getEntries() {
+        Map<String, EntryMetadata> entries = new ConcurrentHashMap<>();
+        records.forEach((path, record) -> entries.put(path, record.metadata));
+        return entries;
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if(count == 0) {
+            return Collections.emptyList();
+        }
+        List<String> strings = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for(String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static class Record {
+
+        private final ObjectId id;
+        private final EntryMetadata metadata;
+
+        private Record(ObjectId id, EntryMetadata metadata) {
+            this.id = id;
+            this.metadata = metadata;
+        }
+
+    }
+
+}
@@ -0,0 +1,184 @@
+package eutros.omnicompendium.loader;
+
+import eutros.omnicompendium.gui.entry.CompendiumEntries;
+import eutros.omnicompendium.gui.entry.LinkGraph;
+import eutros.omnicompendium.helper.FileHelper;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static eutros.omnicompendium.Omnicompendium.LOGGER;
+
+/**
+ * Watches the repository for files edited in place, so that writers can see their changes without pulling.
+ * <p>
+ * Events are collected until none have arrived for a short while, so that an editor saving several files at once,
+ * or writing one in several steps, only causes one reload. Only the touched entries and images are read again.
+ * <p>
+ * Files the mod writes itself are ignored, as is everything while a pull is being applied, since the pull reloads
+ * what it changed anyway.
+ */
+public class FileWatcher {
+
+    private static final long DEBOUNCE_MS = 250;
+
+    private static final Set<File> OWN_FILES = new HashSet<>(Arrays.asList(
+            EntryIndex.FILE,
+            new File(EntryIndex.FILE.getParentFile(), EntryIndex.FILE.getName() + ".tmp"),
+            LinkGraph.REPORT,
+            GitLoader.configFile
+    ));
+
+    @Nullable
+    private static Thread thread = null;
+
+    // events are dropped until then, the time in milliseconds
+    private static volatile long ignoreUntil = 0;
+
+    /**
+     * Start watching, if not already.
+     */
+    public static synchronized void start() {
+        if(thread != null) return;
+
+        thread = new Thread(FileWatcher::run, "Omnicompendium File Watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static synchronized void stop() {
+        if(thread == null) return;
+
+        thread.interrupt();
+        thread = null;
+    }
+
+    /**
+     * Drop every event until {@link #resume()} is called, such as while a pull is being applied.
+     */
+    public static void pause() {
+        ignoreUntil = Long.MAX_VALUE;
+    }
+
+    /**
+     * Take events again, after a short while, so that events for changes made while paused that arrive late are dropped too.
+     */
+    public static void resume() {
+        ignoreUntil = System.currentTimeMillis() + DEBOUNCE_MS;
+    }
+
+    private static void run() {
+        try(WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            Map<WatchKey, Path> dirs = new HashMap<>();
+            register(watcher, dirs, GitLoader.DIR.toPath());
+
+            Set<Path> changed = new HashSet<>();
+            while(!Thread.currentThread().isInterrupted()) {
+                WatchKey key = changed.isEmpty() ? watcher.take() : watcher.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+                if(key == null) {
+                    reload(changed);
+                    changed.clear();
+                    continue;
+                }
+
+                Path dir = dirs.get(key);
+                boolean paused = System.currentTimeMillis() < ignoreUntil;
+                for(WatchEvent<?> event : key.pollEvents()) {
+                    if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        if(paused) continue;
+
+                        LOGGER.info("Too many files changed at once, refreshing everything.");
+                        changed.clear();
+                        CompendiumEntries.refresh();
+                        ImageLoader.load();
+                        continue;
+                    }
+
+                    Path path = dir.resolve((Path) event.context());
+                    if(isHidden(path) || OWN_FILES.contains(path.toFile())) continue;
+
+                    if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                        // watched even while paused, and anything moved in with it won't have events of its own
+                        try {
+                            register(watcher, dirs, path);
+                            if(!paused) {
+                                try(Stream<Path> files = Files.walk(path)) {
+                                    files.forEach(changed::add);
+                                }
+                            }
+                        } catch(IOException | UncheckedIOException e) {
+                            // removed again before it could be watched, which its own delete event covers
+                        }
+                    }
+                    if(!paused) {
+                        changed.add(path);
+                    }
+                }
+                if(!key.reset()) {
+                    dirs.remove(key);
+                }
+            }
+        } catch(InterruptedException | ClosedWatchServiceException ignored) {
+        } catch(IOException e) {
+            LOGGER.warn("Failed to watch the compendium for changes.", e);
+        } finally {
+            // so that it can be started again
+            synchronized(FileWatcher.class) {
+                if(thread == Thread.currentThread()) {
+                    thread = null;
+                }
+            }
+        }
+    }
+
+    private static void register(WatchService watcher, Map<WatchKey, Path> dirs, Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if(isHidden(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                dirs.put(dir.register(watcher,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE), dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static boolean isHidden(Path path) {
+        return GitLoader.DIR.toPath().relativize(path).toString().startsWith(".");
+    }
+
+    private static void reload(Set<Path> changed) {
+        List<File> entries = new ArrayList<>();
+        List<File> others = new ArrayList<>();
+        for(Path path : changed) {
+            if(Files.isDirectory(path)) continue;
+            (FileHelper.isEntry(path) ? entries : others).add(path.toFile());
+        }
+
+        if(!entries.isEmpty()) {
+            LOGGER.info(String.format("Reloading %s changed entries.", entries.size()));
+            CompendiumEntries.reindex(entries);
+        }
+        if(!others.isEmpty()) {
+            ImageLoader.invalidate(others);
+        }
+    }
+
+}
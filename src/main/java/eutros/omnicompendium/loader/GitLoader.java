@@ -6,16 +6,30 @@ import org.apache.commons.io.FileUtils;
 import org.eclipse.jgit.api.CloneCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import org.eclipse.jgit.lib.BatchingProgressMonitor;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static eutros.omnicompendium.Omnicompendium.LOGGER;
 
@@ -26,7 +40,14 @@ public class GitLoader {
     public static File configFile = new File(DIR, "_config.txt");
     public static String branch = OmCConfig.branch;
 
-    public static void syncRepo() {
+    /**
+     * Bring the repository up to date with the configured remote and branch.
+     *
+     * @return The files that changed between the commits checked out before and after, with renames detected,
+     * or null if the whole repository should be treated as changed, such as after cloning.
+     */
+    @Nullable
+    public static List<DiffEntry> syncRepo() {
         LOGGER.info("Loading Omnicompendium.");
         try {
             try {
@@ -34,11 +55,12 @@ public class GitLoader {
                 lines = Files.readAllLines(configFile.toPath());
                 if(lines.isEmpty() || !lines.get(0).equals(OmCConfig.url)) {
                     gitClone();
-                    return;
+                    return null;
                 }
 
                 Git git = Git.open(DIR);
                 Repository repo = git.getRepository();
+                ObjectId oldHead = repo.resolve(Constants.HEAD);
                 if(!repo.getBranch().equals(OmCConfig.branch)) {
                     LOGGER.info(String.format("Checking out branch: %s.", OmCConfig.branch));
                     git.checkout()
@@ -54,14 +76,42 @@ public class GitLoader {
                         .setProgressMonitor(PROGRESS_MONITOR)
                         .call();
                 branch = repo.getBranch();
+                ObjectId newHead = repo.resolve(Constants.HEAD);
+                List<DiffEntry> changes = oldHead == null || newHead == null ? null : diff(repo, oldHead, newHead);
                 git.close();
-                LOGGER.info("Finished pull.");
+                LOGGER.info(changes == null ? "Finished pull." : String.format("Finished pull, %s files changed.", changes.size()));
+                return changes;
             } catch(RepositoryNotFoundException | NoSuchFileException e) {
                 gitClone();
             }
         } catch(IOException | GitAPIException e) {
             LOGGER.fatal("Omnicompendium failed to load.", e);
         }
+        return null;
+    }
+
+    private static List<DiffEntry> diff(Repository repo, ObjectId from, ObjectId to) throws IOException {
+        if(from.equals(to)) {
+            return Collections.emptyList();
+        }
+        try(RevWalk revWalk = new RevWalk(repo); TreeWalk treeWalk = new TreeWalk(repo)) {
+            treeWalk.addTree(revWalk.parseTree(from));
+            treeWalk.addTree(revWalk.parseTree(to));
+            treeWalk.setRecursive(true);
+
+            RenameDetector renames = new RenameDetector(repo);
+            renames.addAll(DiffEntry.scan(treeWalk));
+            return renames.compute();
+        }
+    }
+
+    /**
+     * @return The file a side of a change refers to, or null if the file doesn't exist on that side.
+     */
+    @Nullable
+    public static File getFile(DiffEntry change, DiffEntry.Side side) {
+        String path = change.getPath(side);
+        return DiffEntry.DEV_NULL.equals(path) ? null : new File(DIR, path);
     }
 
     public static void gitClone() throws GitAPIException, IOException {
@@ -97,6 +147,49 @@ public class GitLoader {
         LOGGER.info("Finished cloning.");
     }
 
+    /**
+     * Get the id of the blob that each file would be stored as.
+     * <p>
+     * Files that haven't changed since they were checked out take their id from the git index, the rest are hashed.
+     */
+    public static Map<File, ObjectId> getBlobIds(Collection<File> files) {
+        Map<String, DirCacheEntry> checkedOut = new HashMap<>();
+        try(Git git = Git.open(DIR)) {
+            DirCache dirCache = git.getRepository().readDirCache();
+            for(int i = 0; i < dirCache.getEntryCount(); i++) {
+                DirCacheEntry entry = dirCache.getEntry(i);
+                checkedOut.put(entry.getPathString(), entry);
+            }
+        } catch(IOException e) {
+            LOGGER.warn("Failed to read the git index, hashing every entry.", e);
+        }
+
+        Map<File, ObjectId> ids = new HashMap<>();
+        ObjectInserter.Formatter formatter = new ObjectInserter.Formatter();
+        for(File file : files) {
+            DirCacheEntry entry = checkedOut.get(getRepoPath(file));
+            if(entry != null
+                    && entry.getLength() == file.length()
+                    && entry.getLastModifiedInstant().toEpochMilli() == file.lastModified()) {
+                ids.put(file, entry.getObjectId());
+                continue;
+            }
+            try {
+                ids.put(file, formatter.idFor(Constants.OBJ_BLOB, Files.readAllBytes(file.toPath())));
+            } catch(IOException ignored) {
+                // gone already, so it won't be listed either
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return The path of the file relative to the repository, separated by slashes.
+     */
+    public static String getRepoPath(File file) {
+        return DIR.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+    }
+
     private static class LoggingProgressMonitor extends BatchingProgressMonitor {
 
         @Override
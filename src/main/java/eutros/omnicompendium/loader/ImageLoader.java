@@ -1,112 +1,552 @@
 package eutros.omnicompendium.loader;
 
 import eutros.omnicompendium.Omnicompendium;
+import eutros.omnicompendium.config.OmCConfig;
+import eutros.omnicompendium.gui.GuiCompendium;
+import eutros.omnicompendium.gui.render.DrawList;
 import eutros.omnicompendium.helper.FileHelper;
 import net.minecraft.client.Minecraft;
-import net.minecraft.client.renderer.BufferBuilder;
-import net.minecraft.client.renderer.GlStateManager;
-import net.minecraft.client.renderer.Tessellator;
+import net.minecraft.client.gui.ScaledResolution;
 import net.minecraft.client.renderer.texture.TextureUtil;
-import net.minecraft.client.renderer.vertex.DefaultVertexFormats;
 import net.minecraft.util.ResourceLocation;
-import org.apache.commons.lang3.tuple.Pair;
-import org.lwjgl.opengl.GL11;
+import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+import net.minecraftforge.fml.relauncher.Side;
+import org.eclipse.jgit.diff.DiffEntry;
 
+import javax.annotation.Nullable;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Loads images referenced by entries lazily.
+ * <p>
+ * Image dimensions are probed from the file header when an image is first laid out, and the pixels are only
+ * decoded and uploaded once the image is actually drawn, downscaled to the widest they can be displayed at.
+ * Textures are evicted in least recently used order once they exceed the configured budget.
+ * <p>
+ * Decoding is done by a pool of worker threads, which may only hold so many bytes of decoded pixels at once.
+ * Decoded images are queued until the client thread uploads them, a mipmap level at a time, for as long as the
+ * per-frame upload budget allows. A placeholder is drawn in place of images that aren't uploaded yet.
+ */
+@Mod.EventBusSubscriber(modid = Omnicompendium.MOD_ID, value = Side.CLIENT)
 public class ImageLoader {
 
-    private static Map<Path, Image> textureMap = new HashMap<>();
+    // images that have been drawn recently enough are never evicted, so a page can't evict itself
+    private static final long KEEP_MS = 1000;
+    private static final int PLACEHOLDER_COLOR = 0x40808080;
+    private static final int MAX_RECYCLED = 8;
 
-    public static Image missing = null;
+    private static final Map<Path, Optional<Image>> images = new ConcurrentHashMap<>();
+    private static final TextureAtlas atlas = new TextureAtlas();
+    private static final Set<Image> dedicated = new HashSet<>();
+    private static long dedicatedBytes = 0;
+    // textures of images that changed, to be uploaded into again rather than deleted
+    private static final Deque<Integer> recycled = new ArrayDeque<>();
 
+    private static final AtomicInteger decoderCount = new AtomicInteger();
+    private static final ExecutorService decoder = Executors.newFixedThreadPool(
+            OmCConfig.decodeThreads > 0 ? OmCConfig.decodeThreads : Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+            r -> {
+                Thread thread = new Thread(r, "Omnicompendium Image Decoder #" + decoderCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // one permit per KiB of decoded pixels in flight, from being read until being uploaded
+    private static final int decodePermits = Math.max(1, OmCConfig.decodeMemory * 1024);
+    private static final Semaphore decodeMemory = new Semaphore(decodePermits);
+    private static final Queue<Decoded> decoded = new ConcurrentLinkedQueue<>();
+
+    private static volatile Image missing = null;
+    private static boolean loaded = false;
+
+    private static volatile int generation = 0;
+    private static int uploads = 0;
+
+    /**
+     * Drop every loaded image, to be loaded again as they are referenced.
+     */
     public static void load() {
-        List<Pair<Path, BufferedImage>> images = FileHelper.getImages();
+        Minecraft.getMinecraft().addScheduledTask(ImageLoader::reload);
+    }
+
+    /**
+     * Drop only the images that were added, modified, renamed or deleted by a pull, keeping the textures of the rest.
+     * Images that were renamed without being changed keep their texture under the new name.
+     * <p>
+     * Falls back to a {@link #load()} if the changes aren't known.
+     *
+     * @param changes The changes returned by {@link GitLoader#syncRepo()}.
+     */
+    public static void update(@Nullable List<DiffEntry> changes) {
+        if(changes == null) {
+            load();
+            return;
+        }
         Minecraft.getMinecraft().addScheduledTask(() -> {
-            clear();
-            Omnicompendium.LOGGER.info("Loading images.");
-            IntBuffer intBuf = ByteBuffer.allocateDirect(images.size() * 4).asIntBuffer();
-            GL11.glGenTextures(intBuf);
-            intBuf.rewind();
-
-            try {
-                BufferedImage image = ImageIO.read(
-                        Minecraft.getMinecraft()
-                                .getResourceManager()
-                                .getResource(new ResourceLocation(Omnicompendium.MOD_ID, "textures/gui/missing_image.png"))
-                                .getInputStream()
-                );
-                missing = new Image(GlStateManager.generateTexture(), image);
-            } catch(IOException e) {
-                Omnicompendium.LOGGER.warn("Failed to load missing image texture.", e);
-            }
-
-            for(Pair<Path, BufferedImage> pair : images) {
-                textureMap.put(pair.getLeft(), new Image(intBuf.get(), pair.getRight()));
-            }
-            Omnicompendium.LOGGER.info("Finished loading images.");
+            if(!loaded) {
+                reload();
+                return;
+            }
+
+            boolean changed = false;
+            for(DiffEntry change : changes) {
+                changed |= apply(change);
+            }
+            if(changed) {
+                // layouts may refer to the dropped images, and any decodes in flight are of the old files
+                generation++;
+            }
         });
     }
 
+    /**
+     * @return Whether any image that was known of was affected.
+     */
+    private static boolean apply(DiffEntry change) {
+        File oldFile = GitLoader.getFile(change, DiffEntry.Side.OLD);
+        File newFile = GitLoader.getFile(change, DiffEntry.Side.NEW);
+        boolean changed = false;
+
+        // images that didn't exist are remembered as missing, so additions have to be dropped too
+        if(newFile != null) {
+            changed = drop(newFile);
+        }
+
+        // copies leave the original where it was
+        Optional<Image> old = null;
+        if(oldFile != null && change.getChangeType() != DiffEntry.ChangeType.COPY) {
+            old = images.remove(getKey(oldFile.toPath()));
+        }
+        if(old != null) {
+            if(old.isPresent()) {
+                if(newFile != null && change.getOldId().equals(change.getNewId())) {
+                    Path key = getKey(newFile.toPath());
+                    images.put(key, Optional.of(old.get().moveTo(key)));
+                } else {
+                    old.get().recycle();
+                }
+            }
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Drop the images at the given files, such as after they were edited in place, to be loaded again as they are drawn.
+     */
+    public static void invalidate(Collection<File> files) {
+        Minecraft.getMinecraft().addScheduledTask(() -> {
+            boolean changed = false;
+            for(File file : files) {
+                changed |= drop(file);
+            }
+            if(changed) {
+                generation++;
+            }
+        });
+    }
+
+    private static boolean drop(File file) {
+        Optional<Image> image = images.remove(getKey(file.toPath()));
+        if(image == null) {
+            return false;
+        }
+        image.ifPresent(Image::recycle);
+        return true;
+    }
+
+    private static void reload() {
+        clear();
+
+        try {
+            BufferedImage image = ImageIO.read(
+                    Minecraft.getMinecraft()
+                            .getResourceManager()
+                            .getResource(new ResourceLocation(Omnicompendium.MOD_ID, "textures/gui/missing_image.png"))
+                            .getInputStream()
+            );
+            Image missing = new Image(null, image.getWidth(), image.getHeight());
+            missing.tex = TextureUtil.glGenTextures();
+            TextureUtil.uploadTextureImage(missing.tex, image);
+            ImageLoader.missing = missing;
+        } catch(IOException e) {
+            Omnicompendium.LOGGER.warn("Failed to load missing image texture.", e);
+        }
+
+        loaded = true;
+        generation++;
+    }
+
     private static void clear() {
-        for(Image im : textureMap.values()) {
-            GL11.glDeleteTextures(im.tex);
+        // layouts that are still shown hold on to these, and mustn't draw their deleted textures
+        for(Image im : new ArrayList<>(dedicated)) {
+            im.evict();
+        }
+        for(Optional<Image> im : images.values()) {
+            im.ifPresent(Image::evict);
         }
-        textureMap.clear();
+        dedicated.clear();
+        dedicatedBytes = 0;
+        for(int tex : recycled) {
+            TextureUtil.deleteTexture(tex);
+        }
+        recycled.clear();
+        images.clear();
+        if(missing != null) {
+            missing.evict();
+        }
+        missing = null;
+        atlas.clear();
     }
 
+    /**
+     * Get the image at the given path, probing its size if it hasn't been seen before.
+     * <p>
+     * Safe to call from any thread. The file is probed outside of the map, so if two threads probe the same file
+     * at once, only the first one to finish is kept.
+     */
     public static Image get(Path path) {
-        return textureMap.getOrDefault(path, missing);
+        Path key = getKey(path);
+        Optional<Image> image = images.get(key);
+        if(image == null) {
+            Optional<Image> probed = FileHelper.probeImageSize(key).map(size -> new Image(key, size[0], size[1]));
+            image = images.putIfAbsent(key, probed);
+            if(image == null) {
+                image = probed;
+            }
+        }
+        return image.orElse(missing);
+    }
+
+    /**
+     * @return The image drawn in place of images that can't be read, or null if it isn't loaded.
+     */
+    @Nullable
+    public static Image getMissing() {
+        return missing;
+    }
+
+    private static Path getKey(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Incremented every time the loaded images are discarded, so that layouts referring to old images can be discarded too.
+     */
+    public static int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return The widest, in pixels, that an image can currently be displayed at.
+     */
+    private static int getDisplayWidth() {
+        return Math.max(1, GuiCompendium.ENTRY_WIDTH * new ScaledResolution(Minecraft.getMinecraft()).getScaleFactor());
+    }
+
+    /**
+     * Incremented every time an image is uploaded, so that anything drawn without it can be drawn again.
+     */
+    public static int getUploads() {
+        return uploads;
+    }
+
+    @SubscribeEvent
+    public static void onRenderTick(TickEvent.RenderTickEvent evt) {
+        if(evt.phase != TickEvent.Phase.START) return;
+
+        // always make some progress, however small the budget
+        long deadline = System.nanoTime() + (long) (OmCConfig.uploadBudget * 1000000);
+        do {
+            Decoded next = decoded.peek();
+            if(next == null) break;
+            if(next.step()) {
+                decoded.poll();
+            }
+        } while(System.nanoTime() < deadline);
+    }
+
+    /**
+     * Evict the least recently used textures until they fit in the budget again.
+     *
+     * @param uploaded The image that was just uploaded, which is never evicted, nor is the atlas page it is in.
+     */
+    private static void enforceBudget(Image uploaded) {
+        long budget = OmCConfig.textureBudget * 1024L * 1024L;
+        long now = Minecraft.getSystemTime();
+
+        while(dedicatedBytes + atlas.getPageCount() * TextureAtlas.PAGE_BYTES > budget) {
+            Image oldestImage = null;
+            for(Image im : dedicated) {
+                if(im == uploaded) continue;
+                if(now - im.lastUsed > KEEP_MS && (oldestImage == null || im.lastUsed < oldestImage.lastUsed)) {
+                    oldestImage = im;
+                }
+            }
+            TextureAtlas.Page oldestPage = null;
+            for(TextureAtlas.Page page : atlas.getPages()) {
+                if(uploaded.region != null && page == uploaded.region.page) continue;
+                if(now - page.lastUsed > KEEP_MS && (oldestPage == null || page.lastUsed < oldestPage.lastUsed)) {
+                    oldestPage = page;
+                }
+            }
+
+            if(oldestPage != null && (oldestImage == null || oldestPage.lastUsed < oldestImage.lastUsed)) {
+                atlas.evict(oldestPage);
+            } else if(oldestImage != null) {
+                oldestImage.evict();
+            } else {
+                break; // everything is in use
+            }
+        }
     }
 
     public static class Image {
 
-        private final int tex;
+        @Nullable
+        private final Path path;
         private final int width;
         private final int height;
 
-        public Image(int tex, BufferedImage image) {
-            this.tex = tex;
-            width = image.getWidth();
-            height = image.getHeight();
+        // only touched on the client thread
+        private int tex = -1;
+        @Nullable
+        private TextureAtlas.Region region = null;
+        private boolean loading = false;
+        private long lastUsed = 0;
+        private long bytes = 0;
+        private int textureWidth = 0;
+        private boolean downscaled = false;
 
-            TextureUtil.uploadTextureImage(tex, image);
+        private Image(@Nullable Path path, int width, int height) {
+            this.path = path;
+            this.width = width;
+            this.height = height;
         }
 
-        public int[] draw(int x, int y, int maxWidth) {
-            GlStateManager.bindTexture(tex);
-
-            Tessellator tes = Tessellator.getInstance();
-            BufferBuilder buf = tes.getBuffer();
-
-            final int z = 0;
+        public int[] getSize(int maxWidth) {
             int width = this.width;
             int height = this.height;
             if(maxWidth < width) {
                 height = height * maxWidth / width;
                 width = maxWidth;
             }
+            return new int[] {width, height};
+        }
 
-            GlStateManager.color(1, 1, 1, 1);
+        public boolean isResident() {
+            return region != null ? !region.page.isDeleted() : tex != -1;
+        }
 
-            buf.begin(GL11.GL_QUADS, DefaultVertexFormats.POSITION_TEX);
+        public void addTo(DrawList list, int x, int y, int width, int height) {
+            lastUsed = Minecraft.getSystemTime();
+            if(!isResident()) {
+                requestLoad();
+                list.markIncomplete();
+                list.addRect(x, y, x + width, y + height, PLACEHOLDER_COLOR);
+                return;
+            }
+            if(downscaled && textureWidth < getDisplayWidth()) {
+                requestLoad(); // the GUI got bigger since, keep drawing this one until it's replaced
+            }
 
-            buf.pos(x, y, z).tex(0, 0).endVertex();
-            buf.pos(x, y + height, z).tex(0, 1).endVertex();
-            buf.pos(x + width, y + height, z).tex(1, 1).endVertex();
-            buf.pos(x + width, y, z).tex(1, 0).endVertex();
+            if(region != null) {
+                region.page.lastUsed = lastUsed;
+                list.addTexture(region.tex, x, y, width, height, region.minU, region.minV, region.maxU, region.maxV);
+            } else {
+                list.addTexture(tex, x, y, width, height, 0, 0, 1, 1);
+            }
+        }
 
-            tes.draw();
+        private void requestLoad() {
+            if(loading || path == null) return;
+            loading = true;
 
-            return new int[] {width, height};
+            int generation = ImageLoader.generation;
+            int displayWidth = getDisplayWidth();
+            // the decoded image and the texture data made from it can both be alive at once
+            int permits = (int) Math.min(decodePermits, Math.max(1, getBytes() * 2 / 1024));
+            decoder.execute(() -> {
+                decodeMemory.acquireUninterruptibly(permits);
+                TextureData data = null;
+                try {
+                    if(generation == ImageLoader.generation) {
+                        data = FileHelper.readImage(path)
+                                .map(image -> TextureData.of(image, displayWidth))
+                                .orElse(null);
+                    }
+                } finally {
+                    decoded.add(new Decoded(this, data, generation, permits));
+                }
+            });
+        }
+
+        /**
+         * Replace the current texture with one that has been fully uploaded.
+         *
+         * @param region The atlas region the image was put in, or null to use the given dedicated texture.
+         */
+        private void upload(TextureData data, @Nullable TextureAtlas.Region region, int tex) {
+            if(this.tex != -1) {
+                evict();
+            }
+
+            textureWidth = data.width;
+            downscaled = data.downscaled;
+            // counts as a use, so that an image isn't evicted before it has been drawn once
+            lastUsed = Minecraft.getSystemTime();
+            this.region = region;
+            if(region != null) {
+                region.page.lastUsed = lastUsed;
+            } else {
+                this.tex = tex;
+                bytes = data.getBytes();
+                dedicated.add(this);
+                dedicatedBytes += bytes;
+            }
+            uploads++;
+            enforceBudget(this);
+        }
+
+        private long getBytes() {
+            return (long) width * height * 4;
+        }
+
+        /**
+         * Give this image's texture to an image at another path, for when the file was moved without being changed.
+         */
+        private Image moveTo(Path path) {
+            Image moved = new Image(path, width, height);
+            moved.tex = tex;
+            moved.region = region;
+            moved.lastUsed = lastUsed;
+            moved.bytes = bytes;
+            moved.textureWidth = textureWidth;
+            moved.downscaled = downscaled;
+            if(dedicated.remove(this)) {
+                dedicated.add(moved);
+            }
+            tex = -1;
+            region = null;
+            return moved;
+        }
+
+        /**
+         * Stop drawing this image, keeping its texture to upload another image into.
+         * Atlas regions are left as they are, until their page is evicted.
+         */
+        private void recycle() {
+            region = null;
+            if(tex == -1) return;
+
+            if(dedicated.remove(this)) {
+                dedicatedBytes -= bytes;
+            }
+            if(recycled.size() < MAX_RECYCLED) {
+                recycled.push(tex);
+            } else {
+                TextureUtil.deleteTexture(tex);
+            }
+            tex = -1;
+        }
+
+        /**
+         * Stop drawing this image, deleting its texture.
+         */
+        private void evict() {
+            region = null;
+            if(tex == -1) return;
+
+            if(dedicated.remove(this)) {
+                dedicatedBytes -= bytes;
+            }
+            TextureUtil.deleteTexture(tex);
+            tex = -1;
+        }
+
+    }
+
+    private static class Decoded {
+
+        private final Image image;
+        @Nullable
+        private final TextureData data;
+        private final int generation;
+        private final int permits;
+
+        private Decoded(Image image, @Nullable TextureData data, int generation, int permits) {
+            this.image = image;
+            this.data = data;
+            this.generation = generation;
+            this.permits = permits;
+        }
+
+        // the texture being uploaded into, which isn't given to the image until every level is there
+        private int tex = -1;
+        private int level = 0;
+
+        /**
+         * Upload the next part of the image.
+         *
+         * @return Whether the upload is finished, or abandoned.
+         */
+        private boolean step() {
+            if(data == null || generation != ImageLoader.generation) {
+                finish();
+                return true;
+            }
+
+            if(tex == -1) {
+                TextureAtlas.Region region = atlas.add(data);
+                if(region != null) {
+                    image.upload(data, region, -1);
+                    finish();
+                    return true;
+                }
+                tex = recycled.isEmpty() ? TextureUtil.glGenTextures() : recycled.pop();
+                data.setup(tex);
+            }
+
+            data.uploadLevel(tex, level++);
+            if(level < data.levels.length) {
+                return false;
+            }
+
+            image.upload(data, null, tex);
+            tex = -1;
+            finish();
+            return true;
+        }
+
+        private void finish() {
+            image.loading = false;
+            if(tex != -1) {
+                TextureUtil.deleteTexture(tex);
+                tex = -1;
+            }
+            decodeMemory.release(permits);
         }
 
     }
@@ -0,0 +1,165 @@
+package eutros.omnicompendium.loader;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.GlStateManager;
+import net.minecraft.client.renderer.texture.TextureUtil;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs small images into shared textures, so that they can be drawn without rebinding.
+ * <p>
+ * Each page is filled shelf by shelf, left to right. Images larger than {@link #MAX_IMAGE_SIZE}
+ * are not accepted, and should be given a texture of their own. Space is only reclaimed by
+ * evicting whole pages.
+ */
+public class TextureAtlas {
+
+    public static final int SIZE = 1024;
+    public static final int MAX_IMAGE_SIZE = 256;
+    public static final long PAGE_BYTES = (long) SIZE * SIZE * 4;
+    private static final int PADDING = 1;
+
+    private final List<Page> pages = new ArrayList<>();
+
+    public static boolean fits(int width, int height) {
+        return width <= MAX_IMAGE_SIZE && height <= MAX_IMAGE_SIZE;
+    }
+
+    /**
+     * Upload the image to a free spot in the atlas, allocating a new page if needed.
+     *
+     * @return The region the image was put in, or null if it is too large for the atlas.
+     */
+    @Nullable
+    public Region add(TextureData image) {
+        int width = image.width;
+        int height = image.height;
+        if(!fits(width, height)) {
+            return null;
+        }
+
+        for(Page page : pages) {
+            Region region = page.allocate(width, height);
+            if(region != null) {
+                page.upload(image, region);
+                return region;
+            }
+        }
+
+        Page page = new Page();
+        pages.add(page);
+        Region region = page.allocate(width, height);
+        if(region == null) {
+            return null;
+        }
+        page.upload(image, region);
+        return region;
+    }
+
+    /**
+     * Free a page, making every region in it non-resident.
+     */
+    public void evict(Page page) {
+        if(pages.remove(page)) {
+            page.delete();
+        }
+    }
+
+    public void clear() {
+        for(Page page : pages) {
+            page.delete();
+        }
+        pages.clear();
+    }
+
+    public List<Page> getPages() {
+        return pages;
+    }
+
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    public static class Page {
+
+        private final int tex;
+        private int shelfY = 0;
+        private int shelfHeight = 0;
+        private int cursorX = 0;
+        private boolean deleted = false;
+
+        public long lastUsed = Minecraft.getSystemTime();
+
+        private Page() {
+            tex = TextureUtil.glGenTextures();
+            TextureUtil.allocateTexture(tex, SIZE, SIZE);
+        }
+
+        @Nullable
+        private Region allocate(int width, int height) {
+            int paddedWidth = width + PADDING * 2;
+            int paddedHeight = height + PADDING * 2;
+
+            if(cursorX + paddedWidth > SIZE) {
+                shelfY += shelfHeight;
+                shelfHeight = 0;
+                cursorX = 0;
+            }
+            if(shelfY + paddedHeight > SIZE) {
+                return null;
+            }
+
+            int x = cursorX + PADDING;
+            int y = shelfY + PADDING;
+            cursorX += paddedWidth;
+            shelfHeight = Math.max(shelfHeight, paddedHeight);
+
+            return new Region(this, x, y, width, height);
+        }
+
+        private void upload(TextureData image, Region region) {
+            lastUsed = Minecraft.getSystemTime();
+            GlStateManager.bindTexture(tex);
+            // the gutter is filled with the image's edges
+            image.uploadSub(region.x - PADDING, region.y - PADDING, PADDING);
+        }
+
+        private void delete() {
+            TextureUtil.deleteTexture(tex);
+            deleted = true;
+        }
+
+        public boolean isDeleted() {
+            return deleted;
+        }
+
+    }
+
+    public static class Region {
+
+        public final Page page;
+        public final int tex;
+        public final int x;
+        public final int y;
+        public final float minU;
+        public final float minV;
+        public final float maxU;
+        public final float maxV;
+
+        private Region(Page page, int x, int y, int width, int height) {
+            this.page = page;
+            this.tex = page.tex;
+            this.x = x;
+            this.y = y;
+            minU = (float) x / SIZE;
+            minV = (float) y / SIZE;
+            maxU = (float) (x + width) / SIZE;
+            maxV = (float) (y + height) / SIZE;
+        }
+
+    }
+
+}
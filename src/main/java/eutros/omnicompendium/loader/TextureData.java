@@ -0,0 +1,251 @@
+package eutros.omnicompendium.loader;
+
+import eutros.omnicompendium.config.OmCConfig;
+import net.minecraft.client.renderer.GlStateManager;
+import net.minecraft.client.renderer.texture.TextureUtil;
+import net.minecraft.util.math.MathHelper;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL21;
+import org.lwjgl.opengl.GLContext;
+
+import javax.annotation.Nullable;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Decoded pixels of an image, downscaled to the size they will be displayed at, ready to be uploaded.
+ * <p>
+ * Preparing the data is done off the client thread. Images too large for the atlas get a full mipmap chain,
+ * and opaque ones are uploaded with a smaller internal format. Levels are uploaded one at a time, so that a large
+ * image can be spread over several frames.
+ */
+public class TextureData {
+
+    private static IntBuffer uploadBuffer = BufferUtils.createIntBuffer(0x10000);
+    private static int pixelBuffer = 0;
+    @Nullable
+    private static ByteBuffer mapped = null;
+
+    public final int width;
+    public final int height;
+    public final int[][] levels;
+    public final boolean opaque;
+    public final boolean downscaled;
+
+    private TextureData(int width, int height, int[][] levels, boolean opaque, boolean downscaled) {
+        this.width = width;
+        this.height = height;
+        this.levels = levels;
+        this.opaque = opaque;
+        this.downscaled = downscaled;
+    }
+
+    /**
+     * @param maxWidth The widest, in pixels, that the image could be displayed at.
+     */
+    public static TextureData of(BufferedImage image, int maxWidth) {
+        boolean downscaled = image.getWidth() > maxWidth;
+        if(downscaled) {
+            image = downscale(image, maxWidth);
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+
+        boolean opaque = true;
+        if(image.getColorModel().hasAlpha()) {
+            for(int pixel : pixels) {
+                if(pixel >>> 24 != 255) {
+                    opaque = false;
+                    break;
+                }
+            }
+        }
+
+        int[][] levels;
+        if(TextureAtlas.fits(width, height)) {
+            levels = new int[][] {pixels};
+        } else {
+            levels = mipmap(pixels, width, height);
+        }
+        return new TextureData(width, height, levels, opaque, downscaled);
+    }
+
+    private static BufferedImage downscale(BufferedImage image, int maxWidth) {
+        // halve repeatedly, since bilinear filtering only looks at the nearest four pixels
+        BufferedImage current = image;
+        int width = image.getWidth();
+        while(width > maxWidth) {
+            width = Math.max(maxWidth, width / 2);
+            int height = Math.max(1, (int) ((long) image.getHeight() * width / image.getWidth()));
+
+            BufferedImage next = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = next.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(current, 0, 0, width, height, null);
+            g.dispose();
+            current = next;
+        }
+        return current;
+    }
+
+    private static int[][] mipmap(int[] pixels, int width, int height) {
+        int count = 1;
+        for(int size = Math.max(width, height); size > 1; size >>= 1) {
+            count++;
+        }
+
+        int[][] levels = new int[count][];
+        levels[0] = pixels;
+        for(int level = 1; level < count; level++) {
+            int[] src = levels[level - 1];
+            int srcWidth = Math.max(1, width >> (level - 1));
+            int srcHeight = Math.max(1, height >> (level - 1));
+            int dstWidth = Math.max(1, width >> level);
+            int dstHeight = Math.max(1, height >> level);
+
+            int[] dst = new int[dstWidth * dstHeight];
+            for(int y = 0; y < dstHeight; y++) {
+                int y0 = Math.min(y * 2, srcHeight - 1);
+                int y1 = Math.min(y * 2 + 1, srcHeight - 1);
+                for(int x = 0; x < dstWidth; x++) {
+                    int x0 = Math.min(x * 2, srcWidth - 1);
+                    int x1 = Math.min(x * 2 + 1, srcWidth - 1);
+                    dst[y * dstWidth + x] = average(
+                            src[y0 * srcWidth + x0],
+                            src[y0 * srcWidth + x1],
+                            src[y1 * srcWidth + x0],
+                            src[y1 * srcWidth + x1]
+                    );
+                }
+            }
+            levels[level] = dst;
+        }
+        return levels;
+    }
+
+    private static int average(int a, int b, int c, int d) {
+        int result = 0;
+        for(int shift = 0; shift < 32; shift += 8) {
+            int sum = (a >>> shift & 255) + (b >>> shift & 255) + (c >>> shift & 255) + (d >>> shift & 255);
+            result |= (sum + 2) / 4 << shift;
+        }
+        return result;
+    }
+
+    // never a compressed format, since the driver would compress it on the client thread, outside the upload budget
+    private int getInternalFormat() {
+        return opaque ? GL11.GL_RGB5 : GL11.GL_RGBA8;
+    }
+
+    /**
+     * Set up the given texture to have each of the levels uploaded into it, with {@link #uploadLevel(int, int)}.
+     */
+    public void setup(int tex) {
+        GlStateManager.bindTexture(tex);
+
+        int maxLevel = levels.length - 1;
+        GlStateManager.glTexParameteri(GL11.GL_TEXTURE_2D, GL12.GL_TEXTURE_MAX_LEVEL, maxLevel);
+        GlStateManager.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, maxLevel > 0 ? GL11.GL_LINEAR_MIPMAP_LINEAR : GL11.GL_LINEAR);
+        GlStateManager.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+        GlStateManager.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
+        GlStateManager.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
+    }
+
+    /**
+     * Upload a single level into the given texture, replacing its contents.
+     * The texture can't be drawn until every level has been uploaded.
+     */
+    public void uploadLevel(int tex, int level) {
+        GlStateManager.bindTexture(tex);
+
+        int[] pixels = levels[level];
+        int levelWidth = Math.max(1, width >> level);
+        int levelHeight = Math.max(1, height >> level);
+        int format = getInternalFormat();
+
+        if(OmCConfig.usePixelBuffers && GLContext.getCapabilities().OpenGL21) {
+            // orphan the old storage so the driver doesn't wait for the previous copy out of it
+            long bytes = (long) pixels.length * 4;
+            if(pixelBuffer == 0) {
+                pixelBuffer = GL15.glGenBuffers();
+            }
+            GL15.glBindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, pixelBuffer);
+            GL15.glBufferData(GL21.GL_PIXEL_UNPACK_BUFFER, bytes, GL15.GL_STREAM_DRAW);
+            mapped = GL15.glMapBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, GL15.GL_WRITE_ONLY, bytes, mapped);
+            if(mapped != null) {
+                mapped.order(ByteOrder.nativeOrder()).asIntBuffer().put(pixels);
+                GL15.glUnmapBuffer(GL21.GL_PIXEL_UNPACK_BUFFER);
+                GL11.glTexImage2D(GL11.GL_TEXTURE_2D,
+                        level,
+                        format,
+                        levelWidth,
+                        levelHeight,
+                        0,
+                        GL12.GL_BGRA,
+                        GL12.GL_UNSIGNED_INT_8_8_8_8_REV,
+                        0L);
+                GL15.glBindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, 0);
+                return;
+            }
+            GL15.glBindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, 0);
+        }
+
+        if(uploadBuffer.capacity() < pixels.length) {
+            uploadBuffer = BufferUtils.createIntBuffer(pixels.length);
+        }
+        uploadBuffer.clear();
+        uploadBuffer.put(pixels);
+        uploadBuffer.flip();
+        GL11.glTexImage2D(GL11.GL_TEXTURE_2D,
+                level,
+                format,
+                levelWidth,
+                levelHeight,
+                0,
+                GL12.GL_BGRA,
+                GL12.GL_UNSIGNED_INT_8_8_8_8_REV,
+                uploadBuffer);
+    }
+
+    /**
+     * Upload the full size level into part of the currently bound texture, with its edge pixels repeated out into
+     * a border around it, so that filtering at its edges doesn't blend in whatever is next to it.
+     *
+     * @param x The x of the top left corner of the border.
+     * @param y The y of the top left corner of the border.
+     */
+    public void uploadSub(int x, int y, int border) {
+        int paddedWidth = width + border * 2;
+        int paddedHeight = height + border * 2;
+        int[] pixels = levels[0];
+        int[] padded = new int[paddedWidth * paddedHeight];
+        for(int py = 0; py < paddedHeight; py++) {
+            int row = MathHelper.clamp(py - border, 0, height - 1) * width;
+            for(int px = 0; px < paddedWidth; px++) {
+                padded[py * paddedWidth + px] = pixels[row + MathHelper.clamp(px - border, 0, width - 1)];
+            }
+        }
+        TextureUtil.uploadTextureMipmap(new int[][] {padded}, paddedWidth, paddedHeight, x, y, true, false);
+    }
+
+    /**
+     * @return Roughly how much video memory this takes once uploaded.
+     */
+    public long getBytes() {
+        long pixels = 0;
+        for(int[] level : levels) {
+            pixels += level.length;
+        }
+        return opaque ? pixels * 2 : pixels * 4;
+    }
+
+}